@@ -0,0 +1,23 @@
+package edu.umass.ciir;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler on, so every result also reports the bytes
+ * allocated per operation (gc.alloc.rate.norm) alongside the time.
+ * <p>
+ * java -cp target/evaluator-1.0.0.jar edu.umass.ciir.BenchmarkRunner [benchmark-regex]
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "edu\\.umass\\.ciir\\..*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
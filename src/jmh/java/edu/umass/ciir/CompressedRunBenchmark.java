@@ -0,0 +1,78 @@
+package edu.umass.ciir;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads and scores a synthetic run from a plain file, and from a gzip copy decompressed
+ * on the parsing thread and on a thread of its own (as readRunFile does). The default
+ * size is about 750MB of run; -p requests=30000 makes a multi-GB run:
+ * java -cp target/evaluator-1.0.0.jar org.openjdk.jmh.Main CompressedRun -p requests=30000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class CompressedRunBenchmark {
+
+    @Param({"10000"})
+    int requests;
+
+    @Param({"1000"})
+    int depth;
+
+    @Param({"100"})
+    int judgmentsPerRequest;
+
+    SyntheticData data;
+    File gzipRunFile;
+    Evaluator loaded;
+
+    @Setup
+    public void setup() throws IOException {
+        data = SyntheticData.create(requests, depth, judgmentsPerRequest);
+        gzipRunFile = new File(data.runFile.getPath() + ".gz");
+        gzipRunFile.deleteOnExit();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(data.runFile);
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipRunFile), 1 << 16)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        loaded = new Evaluator(data.tasksFile.getPath(), null, data.compiledQrelFile.getPath(), null);
+        loaded.load();
+    }
+
+    private EvaluationResult evaluate(InputStream in) throws IOException {
+        try (InputStream run = in) {
+            return new Evaluator(loaded, data.runFile.getPath()).evaluateRun(run);
+        }
+    }
+
+    @Benchmark
+    public EvaluationResult plain() throws IOException {
+        return evaluate(new FileInputStream(data.runFile));
+    }
+
+    @Benchmark
+    public EvaluationResult gzipSameThread() throws IOException {
+        return evaluate(CompressedInput.open(gzipRunFile.getPath(), false));
+    }
+
+    @Benchmark
+    public EvaluationResult gzipPipelined() throws IOException {
+        return evaluate(CompressedInput.open(gzipRunFile.getPath(), true));
+    }
+}
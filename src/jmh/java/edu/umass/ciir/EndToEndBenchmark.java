@@ -0,0 +1,47 @@
+package edu.umass.ciir;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates a synthetic run end to end against tasks and qrels that are already loaded,
+ * as batch mode and the server do for each run: parse the run, then score every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Param({"100", "1000"})
+    int requests;
+
+    @Param({"1000"})
+    int depth;
+
+    @Param({"500"})
+    int judgmentsPerRequest;
+
+    @Param({"nDCG@R", "nDCG@R,nDCG@10,AP,P@10,R-prec,recall@100,bpref"})
+    String metrics;
+
+    SyntheticData data;
+    Evaluator loaded;
+
+    @Setup
+    public void setup() throws IOException {
+        data = SyntheticData.create(requests, depth, judgmentsPerRequest);
+        loaded = new Evaluator(data.tasksFile.getPath(), null, data.qrelFile.getPath(), null);
+        loaded.metrics = new MetricSet(metrics);
+        loaded.load();
+    }
+
+    @Benchmark
+    public EvaluationResult evaluateRun() {
+        return new Evaluator(loaded, data.runFile.getPath()).evaluateRun();
+    }
+}
@@ -0,0 +1,105 @@
+package edu.umass.ciir;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up judgments by (request, docid) int in the heap and memory-mapped qrels indexes,
+ * through each request's judged set (as scoring does) and, for comparison, directly. A
+ * quarter of the docids are judged for the request, a quarter are judged for some other
+ * request, and half are not in the qrels at all, as in a deep run. The default sizes are
+ * those of a large collection's qrels, with doc IDs that are UUIDs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JudgmentLookupBenchmark {
+    static final int LOOKUPS = 1 << 16;
+
+    @Param({"5000"})
+    int requests;
+
+    @Param({"400"})
+    int judgmentsPerRequest;
+
+    QrelIndex heap;
+    QrelIndex mapped;
+    int[] heapRequests = new int[LOOKUPS];
+    int[] heapDocids = new int[LOOKUPS];
+    int[] mappedRequests = new int[LOOKUPS];
+    int[] mappedDocids = new int[LOOKUPS];
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticData data = SyntheticData.create(requests, 0, judgmentsPerRequest);
+        heap = HeapQrelIndex.read(data.qrelFile.getPath());
+        mapped = MappedQrelIndex.open(data.compiledQrelFile.getPath());
+        choose(heap, heapRequests, heapDocids, new Random(1));
+        choose(mapped, mappedRequests, mappedDocids, new Random(1));
+    }
+
+    private void choose(QrelIndex qrels, int[] lookupRequests, int[] lookupDocids, Random random) {
+        int unjudged = qrels.getDocids().size();
+        for (int i = 0; i < LOOKUPS; ++i) {
+            int request = random.nextInt(qrels.getRequestCount());
+            lookupRequests[i] = request;
+            switch (random.nextInt(4)) {
+                case 0:
+                    lookupDocids[i] = qrels.getJudgedDocid(request, random.nextInt(qrels.getJudgmentCount(request)));
+                    break;
+                case 1:
+                    lookupDocids[i] = random.nextInt(unjudged);
+                    break;
+                default:
+                    lookupDocids[i] = unjudged + random.nextInt(1000000);
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int heapLookup() {
+        int total = 0;
+        for (int i = 0; i < LOOKUPS; ++i) {
+            total += heap.getRelevanceJudgmentValueWithMapping(heapRequests[i], heapDocids[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int mappedLookup() {
+        int total = 0;
+        for (int i = 0; i < LOOKUPS; ++i) {
+            total += mapped.getRelevanceJudgmentValueWithMapping(mappedRequests[i], mappedDocids[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int heapDirectLookup() {
+        int total = 0;
+        for (int i = 0; i < LOOKUPS; ++i) {
+            total += heap.getRelevanceJudgmentValue(heapRequests[i], heapDocids[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int mappedDirectLookup() {
+        int total = 0;
+        for (int i = 0; i < LOOKUPS; ++i) {
+            total += mapped.getRelevanceJudgmentValue(mappedRequests[i], mappedDocids[i]);
+        }
+        return total;
+    }
+}
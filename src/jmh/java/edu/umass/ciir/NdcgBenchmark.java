@@ -0,0 +1,98 @@
+package edu.umass.ciir;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares nDCG@R scoring with the iDCG and discounts precomputed against the previous
+ * approach, which sorted the positive judgments and called Math.log at every rank on
+ * every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NdcgBenchmark {
+
+    @Param({"100"})
+    int requests;
+
+    @Param({"1000"})
+    int depth;
+
+    @Param({"50", "500"})
+    int judgmentsPerRequest;
+
+    QrelIndex qrels;
+    int[][] rankings;
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticData data = SyntheticData.create(requests, 0, judgmentsPerRequest);
+        qrels = HeapQrelIndex.read(data.qrelFile.getPath());
+        Random random = new Random(42);
+        int unjudged = qrels.getDocids().size();
+        rankings = new int[requests][depth];
+        for (int r = 0; r < requests; ++r) {
+            int request = qrels.getRequest(SyntheticData.requestID(r));
+            for (int i = 0; i < depth; ++i) {
+                rankings[r][i] = (random.nextInt(4) == 0
+                        ? qrels.getJudgedDocid(request, random.nextInt(judgmentsPerRequest))
+                        : unjudged + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public double precomputed() {
+        double total = 0.0;
+        for (int r = 0; r < requests; ++r) {
+            total += Evaluator.calculatenDCG(qrels, r, rankings[r], depth);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double perCall() {
+        double total = 0.0;
+        for (int r = 0; r < requests; ++r) {
+            total += legacyCalculatenDCG(r, rankings[r], depth);
+        }
+        return total;
+    }
+
+    private double legacyCalculatenDCG(int request, int[] docids, int depth) {
+        int[] idealGains = qrels.getPositiveValuesWithMappingDescending(request);
+        int cutoff = idealGains.length;
+        double iDCG = 0.0;
+        int index = 1;
+        for (int gain : idealGains) {
+            if (index == 1) {
+                iDCG += gain;
+            } else {
+                iDCG += (gain / ((Math.log(index + 1) / Math.log(2))));
+            }
+            ++index;
+        }
+        double DCG = 0.0;
+        index = 1;
+        for (int i = 0; i < depth; ++i) {
+            int gain = qrels.getRelevanceJudgmentValueWithMapping(request, docids[i]);
+            if (index == 1) {
+                DCG += gain;
+            } else {
+                DCG += (gain / ((Math.log(index + 1) / Math.log(2))));
+            }
+            ++index;
+            if (index > cutoff) {
+                break;
+            }
+        }
+        return DCG / iDCG;
+    }
+}
@@ -0,0 +1,81 @@
+package edu.umass.ciir;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the nDCG curve, every cutoff from 1 to 1000 from one pass over each ranking,
+ * with scoring each cutoff as a separate nDCG@k metric.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NdcgCurveBenchmark {
+
+    @Param({"100"})
+    int requests;
+
+    @Param({"1000"})
+    int depth;
+
+    @Param({"50"})
+    int judgmentsPerRequest;
+
+    QrelIndex qrels;
+    int[][] rankings;
+    NdcgCurve curve;
+    MetricSet.Engine[] perCutoff;
+    double[] score = new double[1];
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticData data = SyntheticData.create(requests, 0, judgmentsPerRequest);
+        qrels = HeapQrelIndex.read(data.qrelFile.getPath());
+        Random random = new Random(42);
+        int unjudged = qrels.getDocids().size();
+        rankings = new int[requests][depth];
+        for (int r = 0; r < requests; ++r) {
+            int request = qrels.getRequest(SyntheticData.requestID(r));
+            for (int i = 0; i < depth; ++i) {
+                rankings[r][i] = (random.nextInt(4) == 0
+                        ? qrels.getJudgedDocid(request, random.nextInt(judgmentsPerRequest))
+                        : unjudged + i);
+            }
+        }
+        curve = new NdcgCurve(depth);
+        perCutoff = new MetricSet.Engine[depth];
+        for (int k = 1; k <= depth; ++k) {
+            perCutoff[k - 1] = new MetricSet("nDCG@" + k).newEngine();
+        }
+    }
+
+    @Benchmark
+    public double curve() {
+        double total = 0.0;
+        for (int r = 0; r < requests; ++r) {
+            curve.compute(qrels, r, rankings[r], depth);
+            for (int k = 1; k <= depth; ++k) {
+                total += curve.get(k);
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double metricPerCutoff() {
+        double total = 0.0;
+        for (int r = 0; r < requests; ++r) {
+            for (MetricSet.Engine engine : perCutoff) {
+                engine.score(qrels, r, rankings[r], depth, score);
+                total += score[0];
+            }
+        }
+        return total;
+    }
+}
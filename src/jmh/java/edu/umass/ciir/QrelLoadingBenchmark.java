@@ -0,0 +1,41 @@
+package edu.umass.ciir;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads synthetic qrels, both by parsing the text file and by mapping the compiled file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QrelLoadingBenchmark {
+
+    @Param({"100", "1000"})
+    int requests;
+
+    @Param({"500"})
+    int judgmentsPerRequest;
+
+    SyntheticData data;
+
+    @Setup
+    public void setup() throws IOException {
+        data = SyntheticData.create(requests, 0, judgmentsPerRequest);
+    }
+
+    @Benchmark
+    public QrelIndex readText() {
+        return HeapQrelIndex.read(data.qrelFile.getPath());
+    }
+
+    @Benchmark
+    public QrelIndex openCompiled() {
+        return MappedQrelIndex.open(data.compiledQrelFile.getPath());
+    }
+}
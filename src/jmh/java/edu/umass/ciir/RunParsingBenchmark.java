@@ -0,0 +1,77 @@
+package edu.umass.ciir;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a synthetic run file into RequestRuns, as readRunFile does for every evaluation,
+ * and, for comparison, the way the evaluator used to: a BufferedReader, with each line
+ * split on the regex [ \t]+. Both keep the same top hits per request, so the difference is
+ * the parsing. Each run file has requests x depth lines, for converting to lines/sec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RunParsingBenchmark {
+
+    @Param({"100", "1000"})
+    int requests;
+
+    @Param({"1000"})
+    int depth;
+
+    @Param({"500"})
+    int judgmentsPerRequest;
+
+    SyntheticData data;
+    Evaluator loaded;
+
+    @Setup
+    public void setup() throws IOException {
+        data = SyntheticData.create(requests, depth, judgmentsPerRequest);
+        loaded = new Evaluator(data.tasksFile.getPath(), null, data.qrelFile.getPath(), null);
+        loaded.load();
+    }
+
+    @Benchmark
+    public Evaluator readRunFile() {
+        Evaluator evaluator = new Evaluator(loaded, data.runFile.getPath());
+        evaluator.readRunFile();
+        return evaluator;
+    }
+
+    @Benchmark
+    public Map<String, RequestRun> bufferedReaderSplit() throws IOException {
+        Map<String, RequestRun> requestRuns = new HashMap<>();
+        DocidDictionary docids = new DocidDictionary(loaded.getQrels().getDocids());
+        RequestRun requestRun = null;
+        try (BufferedReader br = new BufferedReader(new FileReader(data.runFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String queryID = line.split("[ \t]+")[0];
+                if (requestRun == null || !requestRun.requestID.equals(queryID)) {
+                    if (requestRun != null) {
+                        requestRun.finish();
+                    }
+                    requestRun = new RequestRun(queryID, MetricSet.MAX_DEPTH, docids);
+                    requestRuns.put(queryID, requestRun);
+                }
+                String[] tokens = line.split("[ \t]+");
+                requestRun.offer(tokens[2], Double.parseDouble(tokens[4]));
+            }
+        }
+        if (requestRun != null) {
+            requestRun.finish();
+        }
+        return requestRuns;
+    }
+}
@@ -0,0 +1,84 @@
+package edu.umass.ciir;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scores rankings through the embeddable Scorer API, as doc ints and as doc ID strings.
+ * Run with the GC profiler (BenchmarkRunner turns it on) to check that neither allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScorerBenchmark {
+
+    @Param({"100"})
+    int requests;
+
+    @Param({"1000"})
+    int depth;
+
+    @Param({"50"})
+    int judgmentsPerRequest;
+
+    Scorer scorer;
+    int[] requestInts;
+    int[][] rankings;
+    String[][] docidRankings;
+    int[] sizes;
+    double[] out;
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticData data = SyntheticData.create(requests, 0, judgmentsPerRequest);
+        scorer = new Scorer(Scorer.loadQrels(data.qrelFile.getPath()), "nDCG@R,AP,P@10");
+        QrelIndex qrels = scorer.getQrels();
+        Random random = new Random(42);
+        requestInts = new int[requests];
+        rankings = new int[requests][depth];
+        docidRankings = new String[requests][depth];
+        sizes = new int[requests];
+        for (int r = 0; r < requests; ++r) {
+            int request = scorer.request(SyntheticData.requestID(r));
+            requestInts[r] = request;
+            sizes[r] = depth;
+            for (int i = 0; i < depth; ++i) {
+                docidRankings[r][i] = (random.nextInt(4) == 0
+                        ? qrels.getDocids().get(qrels.getJudgedDocid(request, random.nextInt(judgmentsPerRequest)))
+                        : "unjudged-" + r + "-" + i);
+                rankings[r][i] = scorer.docid(docidRankings[r][i]);
+            }
+        }
+        out = new double[requests * scorer.getMetricCount()];
+    }
+
+    @Benchmark
+    public double docInts() {
+        double total = 0.0;
+        for (int r = 0; r < requests; ++r) {
+            total += scorer.score(requestInts[r], rankings[r], depth);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double docidStrings() {
+        double total = 0.0;
+        for (int r = 0; r < requests; ++r) {
+            total += scorer.score(requestInts[r], docidRankings[r], depth);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double[] batch() {
+        scorer.scoreAll(requestInts, rankings, sizes, requests, out);
+        return out;
+    }
+}
@@ -0,0 +1,114 @@
+package edu.umass.ciir;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates a TREC-format run, a qrels file (text and compiled) and a matching analytic
+ * tasks file at a configurable size, so benchmarks can run on production-like shapes.
+ * Doc IDs are UUID strings, like the real ones. Each ranking mixes judged docs (about a
+ * quarter of the hits) with unjudged ones, in descending score order.
+ * <p>
+ * Can also be run on its own to write the files to a directory:
+ * java -cp target/evaluator-1.0.0.jar edu.umass.ciir.SyntheticData requests depth judgments-per-request dir
+ */
+public class SyntheticData {
+    final int requests;
+    final int depth;
+    final int judgmentsPerRequest;
+    final File tasksFile;
+    final File qrelFile;
+    final File compiledQrelFile;
+    final File runFile;
+
+    SyntheticData(int requests, int depth, int judgmentsPerRequest, File dir, long seed) throws IOException {
+        this.requests = requests;
+        this.depth = depth;
+        this.judgmentsPerRequest = judgmentsPerRequest;
+        this.tasksFile = new File(dir, "tasks.json");
+        this.qrelFile = new File(dir, "qrels");
+        this.compiledQrelFile = new File(dir, "qrels.bin");
+        this.runFile = new File(dir, "run");
+        generate(new Random(seed));
+    }
+
+    /**
+     * Generates the files in a new temporary directory that is deleted on exit.
+     */
+    static SyntheticData create(int requests, int depth, int judgmentsPerRequest) throws IOException {
+        File dir = Files.createTempDirectory("evaluator-bench").toFile();
+        SyntheticData data = new SyntheticData(requests, depth, judgmentsPerRequest, dir, 42);
+        dir.deleteOnExit();
+        data.tasksFile.deleteOnExit();
+        data.qrelFile.deleteOnExit();
+        data.compiledQrelFile.deleteOnExit();
+        data.runFile.deleteOnExit();
+        return data;
+    }
+
+    static String requestID(int r) {
+        return "SYN-T" + (r / 10) + "-r" + (r % 10);
+    }
+
+    private static String docid(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    private void generate(Random random) throws IOException {
+        String[][] judged = new String[requests][judgmentsPerRequest];
+        try (Writer w = new BufferedWriter(new FileWriter(qrelFile))) {
+            for (int r = 0; r < requests; ++r) {
+                for (int j = 0; j < judgmentsPerRequest; ++j) {
+                    judged[r][j] = docid(random);
+                    /* Mostly non-relevant, like pooled judgments */
+                    int grade = (random.nextInt(3) == 0 ? 1 + random.nextInt(4) : 0);
+                    w.write(requestID(r) + " " + judged[r][j] + " " + grade + "\n");
+                }
+            }
+        }
+        MappedQrelIndex.compile(HeapQrelIndex.read(qrelFile.getPath()), compiledQrelFile.getPath());
+        try (Writer w = new BufferedWriter(new FileWriter(runFile))) {
+            for (int r = 0; r < requests; ++r) {
+                for (int i = 0; i < depth; ++i) {
+                    String docid = (judgmentsPerRequest > 0 && random.nextInt(4) == 0
+                            ? judged[r][random.nextInt(judgmentsPerRequest)] : docid(random));
+                    w.write(requestID(r) + " Q0 " + docid + " " + (i + 1) + " "
+                            + String.format("%.6f", (double) (depth - i) / depth) + " synthetic\n");
+                }
+            }
+        }
+        try (Writer w = new BufferedWriter(new FileWriter(tasksFile))) {
+            w.write("[");
+            for (int r = 0; r < requests; r += 10) {
+                if (r > 0) {
+                    w.write(",");
+                }
+                w.write("{\"task-num\":\"SYN-T" + (r / 10) + "\",\"requests\":[");
+                for (int k = r; k < Math.min(r + 10, requests); ++k) {
+                    if (k > r) {
+                        w.write(",");
+                    }
+                    w.write("{\"req-num\":\"" + requestID(k) + "\"}");
+                }
+                w.write("]}");
+            }
+            w.write("]");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.out.println("Usage: SyntheticData requests depth judgments-per-request dir");
+            System.exit(-1);
+        }
+        File dir = new File(args[3]);
+        dir.mkdirs();
+        new SyntheticData(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]), dir, 42);
+    }
+}
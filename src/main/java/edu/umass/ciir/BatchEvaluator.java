@@ -0,0 +1,185 @@
+package edu.umass.ciir;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Evaluates many run files in one JVM. The analytic tasks and relevance judgments are
+ * loaded once and shared, and the runs are evaluated in parallel on a bounded worker pool.
+ * All results go to one CSV file with a Run column, and optionally to a result store too.
+ */
+public class BatchEvaluator {
+    private static final Logger logger = Logger.getLogger("Evaluator");
+
+    private final Evaluator loaded;
+    private final List<String> runFiles;
+    private final String outputFile;
+    private final int threads;
+    /* Where else to add the results, or null */
+    private final ResultStore.Writer store;
+
+    BatchEvaluator(Evaluator loaded, List<String> runFiles, String outputFile, int threads,
+                   ResultStore.Writer store) {
+        this.loaded = loaded;
+        this.runFiles = runFiles;
+        this.outputFile = outputFile;
+        this.threads = threads;
+        this.store = store;
+    }
+
+    /**
+     * Expands a directory or a glob pattern (e.g. runs/sweep-*.out) into the
+     * list of run files it names, in sorted order.
+     * @param runSpec a directory or a glob pattern
+     * @return the run file names
+     */
+    static List<String> findRunFiles(String runSpec) {
+        List<String> files = new ArrayList<>();
+        Path path = Paths.get(runSpec);
+        Path dir;
+        String pattern;
+        if (Files.isDirectory(path)) {
+            dir = path;
+            pattern = "*";
+        } else {
+            dir = (path.getParent() == null ? Paths.get(".") : path.getParent());
+            pattern = path.getFileName().toString();
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, pattern)) {
+            for (Path p : stream) {
+                if (Files.isRegularFile(p)) {
+                    files.add(p.toString());
+                }
+            }
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Runs are stored under their file names, so two run files with the same name (e.g.
+     * runs/a/run.txt and runs/b/run.txt) would replace each other in the store; refuse
+     * them before evaluating anything.
+     */
+    private void checkRunIDs() {
+        Map<String, String> runIDs = new HashMap<>();
+        for (String runFile : runFiles) {
+            String runID = Paths.get(runFile).getFileName().toString();
+            String other = runIDs.put(runID, runFile);
+            if (other != null) {
+                throw new TasksRunnerException("Run files " + other + " and " + runFile
+                        + " would both be stored as run " + runID + "; rename one of them");
+            }
+        }
+    }
+
+    /**
+     * Evaluates all of the run files and writes the combined CSV file.
+     */
+    void process() {
+        if (store != null) {
+            checkRunIDs();
+        }
+        logger.info("Evaluating " + runFiles.size() + " run files on " + threads + " threads");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<EvaluationResult>> futures = new ArrayList<>();
+            for (String runFile : runFiles) {
+                futures.add(pool.submit(() -> new Evaluator(loaded, runFile).evaluateRun()));
+            }
+            Map<String, String> requestTaskIDs = loaded.getRequestTaskIDs();
+            try (FileWriter csvWriter = new FileWriter(outputFile)) {
+                csvWriter.append("Run,Request");
+                for (String metricName : loaded.metrics.getNames()) {
+                    csvWriter.append(",");
+                    csvWriter.append(metricName);
+                }
+                csvWriter.append("\n");
+                for (Future<EvaluationResult> future : futures) {
+                    EvaluationResult result = future.get();
+                    String runName = Paths.get(result.getRunName()).getFileName().toString();
+                    if (store != null) {
+                        store.add(runName, result, requestTaskIDs);
+                    }
+                    for (int i = 0; i < result.size(); ++i) {
+                        csvWriter.append(runName);
+                        csvWriter.append(",");
+                        csvWriter.append(result.getRequestID(i));
+                        for (int m = 0; m < result.getMetricCount(); ++m) {
+                            csvWriter.append(",");
+                            csvWriter.append(String.format("%.4f", result.getScore(i, m)));
+                        }
+                        csvWriter.append("\n");
+                    }
+                    csvWriter.append(runName);
+                    csvWriter.append(",TOTAL");
+                    for (int m = 0; m < result.getMetricCount(); ++m) {
+                        csvWriter.append(",");
+                        csvWriter.append(String.format("%.4f", result.getTotal(m)));
+                    }
+                    csvWriter.append("\n");
+                }
+            }
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            throw new TasksRunnerException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Entry point for batch mode.
+     * @param args [-metrics list] [-cache dir] [-cache-size MB] [-stats file] [-store dir] analytic-tasks-file run-dir-or-glob qrel-file output-file [threads]
+     */
+    public static void main(String[] args) {
+        CommandLine commandLine = new CommandLine(args);
+        if (commandLine.getPositionalCount() < 4) {
+            System.out.println("evaluator batch: calculate nDCG@R (or other metrics) for many run files");
+            System.out.println("Usage: evaluator batch [-metrics list] [-cache dir] [-cache-size MB] [-stats file] [-store dir]"
+                    + " analytic-tasks-file run-dir-or-glob qrel-file output-file [threads]");
+            System.exit(-1);
+        }
+        List<String> files = commandLine.getPositional();
+        int threads = commandLine.getIntPositional(4, "threads", Runtime.getRuntime().availableProcessors());
+        if (threads < 1) {
+            throw new TasksRunnerException("The threads argument must be at least 1: " + threads);
+        }
+        Evaluator evaluator = new Evaluator(files.get(0), null, files.get(2), files.get(3));
+        evaluator.metrics = new MetricSet(commandLine.getOption("metrics", MetricSet.DEFAULT_METRICS));
+        evaluator.cache = ResultCache.fromCommandLine(commandLine);
+        String statsFile = commandLine.getOption("stats", null);
+        if (statsFile != null) {
+            evaluator.stats = new EvaluationStats(true);
+        }
+        evaluator.setupLogging();
+        evaluator.load();
+        List<String> runFiles = findRunFiles(files.get(1));
+        /* The runs are already evaluated in parallel; only split a run's parsing over spare threads */
+        evaluator.parseThreads = Math.max(1, threads / Math.max(1, runFiles.size()));
+        String storeDir = commandLine.getOption("store", null);
+        try (ResultStore.Writer store = (storeDir == null ? null : ResultStore.append(storeDir))) {
+            new BatchEvaluator(evaluator, runFiles, files.get(3), threads, store).process();
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+        if (statsFile != null) {
+            evaluator.stats.write(statsFile);
+        }
+    }
+}
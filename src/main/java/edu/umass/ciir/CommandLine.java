@@ -0,0 +1,97 @@
+package edu.umass.ciir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits command-line arguments into options ("-name value", or "-name" alone for the
+ * flags the caller names) and positional arguments.
+ */
+public class CommandLine {
+    private final Map<String, String> options = new HashMap<>();
+    private final Set<String> flags = new HashSet<>();
+    private final List<String> positional = new ArrayList<>();
+
+    /**
+     * @param args the arguments
+     * @param flagNames the names of options that take no value
+     */
+    CommandLine(String[] args, String... flagNames) {
+        Set<String> flagNameSet = new HashSet<>();
+        for (String flagName : flagNames) {
+            flagNameSet.add(flagName);
+        }
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if (arg.startsWith("-") && arg.length() > 1) {
+                String name = arg.substring(1);
+                if (flagNameSet.contains(name)) {
+                    flags.add(name);
+                } else if (i + 1 < args.length) {
+                    options.put(name, args[++i]);
+                } else {
+                    throw new TasksRunnerException("Option " + arg + " needs a value");
+                }
+            } else {
+                positional.add(arg);
+            }
+        }
+    }
+
+    public String getOption(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    public int getIntOption(String name, int defaultValue) {
+        String value = options.get(name);
+        try {
+            return (value == null ? defaultValue : Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            throw new TasksRunnerException("Option -" + name + " needs a number: " + value);
+        }
+    }
+
+    public long getLongOption(String name, long defaultValue) {
+        String value = options.get(name);
+        try {
+            return (value == null ? defaultValue : Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            throw new TasksRunnerException("Option -" + name + " needs a number: " + value);
+        }
+    }
+
+    public boolean hasFlag(String name) {
+        return flags.contains(name);
+    }
+
+    public List<String> getPositional() {
+        return positional;
+    }
+
+    public String getPositional(int i) {
+        return positional.get(i);
+    }
+
+    /**
+     * Returns the i'th positional argument as an int, or the default if there are not
+     * that many.
+     */
+    public int getIntPositional(int i, String name, int defaultValue) {
+        if (i >= positional.size()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(positional.get(i));
+        } catch (NumberFormatException e) {
+            throw new TasksRunnerException("The " + name + " argument needs a number: " + positional.get(i));
+        }
+    }
+
+    public int getPositionalCount() {
+        return positional.size();
+    }
+}
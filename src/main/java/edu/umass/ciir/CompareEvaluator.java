@@ -0,0 +1,149 @@
+package edu.umass.ciir;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+
+/**
+ * Compares one or more runs against a baseline run: each run is scored per request
+ * (nDCG@R by default), and the paired differences from the baseline are put through
+ * randomization and bootstrap significance tests.
+ */
+public class CompareEvaluator {
+    private static final Logger logger = Logger.getLogger("Evaluator");
+
+    private final Evaluator loaded;
+    private final List<String> runFiles;
+    private final String outputFile;
+    private final int iterations;
+    private final SignificanceTest test;
+
+    CompareEvaluator(Evaluator loaded, List<String> runFiles, String outputFile, int iterations,
+                     SignificanceTest test) {
+        this.loaded = loaded;
+        this.runFiles = runFiles;
+        this.outputFile = outputFile;
+        this.iterations = iterations;
+        this.test = test;
+    }
+
+    /**
+     * Returns the run's scores by request ID, leaving out NaN scores (requests with no
+     * relevant documents).
+     */
+    private static Map<String, Double> scoresByRequest(EvaluationResult result) {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (int i = 0; i < result.size(); ++i) {
+            double score = result.getScore(i, 0);
+            if (!Double.isNaN(score)) {
+                scores.put(result.getRequestID(i), score);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Pairs up the scores of two runs. Requests scored for only one of the runs count
+     * as 0 for the other (it retrieved nothing for them).
+     * @return two arrays, baseline scores and run scores, in the same request order
+     */
+    static double[][] pairScores(Map<String, Double> baseline, Map<String, Double> run) {
+        List<String> requestIDs = new ArrayList<>(baseline.keySet());
+        for (String requestID : run.keySet()) {
+            if (!baseline.containsKey(requestID)) {
+                requestIDs.add(requestID);
+            }
+        }
+        double[][] paired = new double[2][requestIDs.size()];
+        for (int i = 0; i < requestIDs.size(); ++i) {
+            paired[0][i] = baseline.getOrDefault(requestIDs.get(i), 0.0);
+            paired[1][i] = run.getOrDefault(requestIDs.get(i), 0.0);
+        }
+        return paired;
+    }
+
+    /**
+     * Scores the runs, tests each against the first (the baseline) and writes the CSV file.
+     */
+    void process() {
+        List<Map<String, Double>> scores = new ArrayList<>();
+        for (String runFile : runFiles) {
+            scores.add(scoresByRequest(new Evaluator(loaded, runFile).evaluateRun()));
+        }
+        String metricName = loaded.metrics.getName(0);
+        try (FileWriter csvWriter = new FileWriter(outputFile)) {
+            csvWriter.append("Run,Baseline,Metric,Requests,BaselineMean,RunMean,Difference,"
+                    + "RandomizationP,BootstrapP\n");
+            String baselineName = Paths.get(runFiles.get(0)).getFileName().toString();
+            for (int r = 1; r < runFiles.size(); ++r) {
+                String runName = Paths.get(runFiles.get(r)).getFileName().toString();
+                double[][] paired = pairScores(scores.get(0), scores.get(r));
+                int n = paired[0].length;
+                double[] diffs = new double[n];
+                for (int i = 0; i < n; ++i) {
+                    diffs[i] = paired[1][i] - paired[0][i];
+                }
+                logger.info("Testing " + runName + " against " + baselineName + " over " + n
+                        + " requests, " + iterations + " iterations");
+                double randomizationP = (n == 0 ? 1.0 : test.randomization(diffs, iterations));
+                double bootstrapP = (n == 0 ? 1.0 : test.bootstrap(diffs, iterations));
+                csvWriter.append(runName);
+                csvWriter.append(",");
+                csvWriter.append(baselineName);
+                csvWriter.append(",");
+                csvWriter.append(metricName);
+                csvWriter.append(",");
+                csvWriter.append(Integer.toString(n));
+                csvWriter.append(",");
+                csvWriter.append(String.format("%.4f", SignificanceTest.mean(paired[0])));
+                csvWriter.append(",");
+                csvWriter.append(String.format("%.4f", SignificanceTest.mean(paired[1])));
+                csvWriter.append(",");
+                csvWriter.append(String.format("%.4f", SignificanceTest.mean(diffs)));
+                csvWriter.append(",");
+                csvWriter.append(String.format("%.6f", randomizationP));
+                csvWriter.append(",");
+                csvWriter.append(String.format("%.6f", bootstrapP));
+                csvWriter.append("\n");
+            }
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+    }
+
+    /**
+     * Entry point for compare mode.
+     * @param args [-metric name] [-iterations n] [-seed n] [-threads n]
+     *             analytic-tasks-file qrel-file output-file baseline-run run...
+     */
+    public static void main(String[] args) {
+        CommandLine commandLine = new CommandLine(args);
+        if (commandLine.getPositionalCount() < 5) {
+            System.out.println("evaluator compare: paired significance tests of runs against a baseline run");
+            System.out.println("Usage: evaluator compare [-metric name] [-iterations n] [-seed n] [-threads n]"
+                    + " analytic-tasks-file qrel-file output-file baseline-run run...");
+            System.exit(-1);
+        }
+        List<String> files = commandLine.getPositional();
+        int iterations = commandLine.getIntOption("iterations", 100000);
+        long seed = commandLine.getLongOption("seed", 12345);
+        int threads = commandLine.getIntOption("threads", Runtime.getRuntime().availableProcessors());
+        Evaluator evaluator = new Evaluator(files.get(0), null, files.get(1), files.get(2));
+        evaluator.metrics = new MetricSet(commandLine.getOption("metric", MetricSet.DEFAULT_METRICS));
+        evaluator.setupLogging();
+        evaluator.load();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            new CompareEvaluator(evaluator, files.subList(3, files.size()), files.get(2), iterations,
+                    new SignificanceTest(pool, seed)).process();
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
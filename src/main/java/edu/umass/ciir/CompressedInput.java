@@ -0,0 +1,285 @@
+package edu.umass.ciir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens run and qrels files that may be compressed, recognizing them by their first bytes
+ * rather than their names. Gzip files are decompressed on a thread of their own, which
+ * hands blocks of decompressed bytes to the reader through a bounded queue, so that
+ * decompression and parsing overlap. The JDK has no zstd decoder, so zstd files are piped
+ * through the zstd command, which has to be installed; that also decompresses
+ * alongside the parsing, in its own process.
+ */
+public class CompressedInput {
+    private static final int GZIP_MAGIC = 0x1f8b;
+    private static final int ZSTD_MAGIC = 0x28b52ffd;
+    /* The size of the decompressed blocks, and how many can be waiting for the reader */
+    static final int BLOCK_SIZE = 1 << 18;
+    static final int QUEUE_BLOCKS = 8;
+
+    enum Format {
+        PLAIN, GZIP, ZSTD
+    }
+
+    /**
+     * Returns the format of a file, from its first bytes.
+     */
+    static Format detect(String fileName) {
+        byte[] magic = new byte[4];
+        int n = 0;
+        try (InputStream in = new FileInputStream(fileName)) {
+            int r;
+            while (n < magic.length && (r = in.read(magic, n, magic.length - n)) > 0) {
+                n += r;
+            }
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+        if (n >= 2 && ((magic[0] & 0xff) << 8 | (magic[1] & 0xff)) == GZIP_MAGIC) {
+            return Format.GZIP;
+        }
+        if (n == 4 && ((magic[0] & 0xff) << 24 | (magic[1] & 0xff) << 16 | (magic[2] & 0xff) << 8
+                | (magic[3] & 0xff)) == ZSTD_MAGIC) {
+            return Format.ZSTD;
+        }
+        return Format.PLAIN;
+    }
+
+    /**
+     * Returns true if the file is gzip or zstd compressed.
+     */
+    static boolean isCompressed(String fileName) {
+        File f = new File(fileName);
+        return f.isFile() && detect(fileName) != Format.PLAIN;
+    }
+
+    /**
+     * Opens a file, decompressing it on another thread if it is compressed.
+     * @param fileName the file name
+     * @return the (decompressed) contents
+     * @throws IOException if the file cannot be opened
+     */
+    static InputStream open(String fileName) throws IOException {
+        return open(fileName, true);
+    }
+
+    /**
+     * Opens a file, decompressing it if it is compressed.
+     * @param fileName the file name
+     * @param pipelined true to decompress gzip on another thread, false to decompress it
+     *                  as it is read
+     * @return the (decompressed) contents
+     * @throws IOException if the file cannot be opened
+     */
+    static InputStream open(String fileName, boolean pipelined) throws IOException {
+        switch (detect(fileName)) {
+            case GZIP:
+                InputStream gzip = new GZIPInputStream(new FileInputStream(fileName), 1 << 16);
+                return (pipelined ? new PipelinedInputStream(gzip, BLOCK_SIZE, QUEUE_BLOCKS) : gzip);
+            case ZSTD:
+                return openZstd(fileName);
+            default:
+                return new FileInputStream(fileName);
+        }
+    }
+
+    private static InputStream openZstd(String fileName) throws IOException {
+        Process process;
+        try {
+            process = new ProcessBuilder("zstd", "-dcq", fileName)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+        } catch (IOException e) {
+            throw new TasksRunnerException(fileName + " is zstd-compressed, and reading it needs the zstd"
+                    + " command, which could not be run: " + e.getMessage());
+        }
+        process.getOutputStream().close();
+        return new InputStream() {
+            private final InputStream in = process.getInputStream();
+
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = in.read(b, off, len);
+                if (n < 0) {
+                    checkExit();
+                }
+                return n;
+            }
+
+            private void checkExit() throws IOException {
+                try {
+                    if (process.waitFor() != 0) {
+                        throw new IOException("zstd could not decompress " + fileName
+                                + " (exit status " + process.exitValue() + ")");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+                process.destroy();
+            }
+        };
+    }
+
+    /**
+     * An input stream that reads its source on a thread of its own, a block at a time,
+     * and queues up to a fixed number of blocks for the reader. Blocks are recycled, so
+     * reading allocates nothing once the queue is full.
+     */
+    static class PipelinedInputStream extends InputStream {
+        private static final Block END = new Block(new byte[0]);
+
+        private static class Block {
+            final byte[] bytes;
+            int length;
+            IOException error;
+
+            Block(byte[] bytes) {
+                this.bytes = bytes;
+            }
+        }
+
+        private final InputStream source;
+        private final BlockingQueue<Block> full;
+        private final BlockingQueue<Block> free;
+        private final Thread reader;
+        private Block current;
+        private int position;
+        private boolean ended = false;
+
+        /**
+         * Starts reading the source.
+         * @param source the stream to read ahead, e.g. a GZIPInputStream
+         * @param blockSize the bytes per block
+         * @param queueBlocks the number of blocks that can wait for the reader
+         */
+        PipelinedInputStream(InputStream source, int blockSize, int queueBlocks) {
+            this.source = source;
+            this.full = new ArrayBlockingQueue<>(queueBlocks + 1);
+            this.free = new ArrayBlockingQueue<>(queueBlocks + 1);
+            for (int i = 0; i < queueBlocks; ++i) {
+                free.add(new Block(new byte[blockSize]));
+            }
+            this.reader = new Thread(this::readAhead, "decompress");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Fills free blocks from the source and queues them, until the end of the source.
+         */
+        private void readAhead() {
+            try {
+                while (true) {
+                    Block block = free.take();
+                    block.length = 0;
+                    int n = 0;
+                    while (block.length < block.bytes.length
+                            && (n = source.read(block.bytes, block.length, block.bytes.length - block.length)) > 0) {
+                        block.length += n;
+                    }
+                    if (block.length > 0) {
+                        full.put(block);
+                    }
+                    if (n < 0) {
+                        full.put(END);
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // closed before the end of the source
+            } catch (Throwable e) {
+                /* Anything, even an Error, must reach the reader, or it waits for a block forever */
+                Block failed = new Block(new byte[0]);
+                failed.error = (e instanceof IOException ? (IOException) e
+                        : new IOException("Could not read ahead: " + e, e));
+                try {
+                    full.put(failed);
+                } catch (InterruptedException ignored) {
+                    // closed while failing; nobody is reading
+                }
+            }
+        }
+
+        /**
+         * Makes current a block with bytes left in it.
+         * @return false at the end of the source
+         */
+        private boolean nextBlock() throws IOException {
+            while (current == null || position == current.length) {
+                if (ended) {
+                    return false;
+                }
+                if (current != null) {
+                    free.add(current);
+                    current = null;
+                }
+                Block block;
+                try {
+                    block = full.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                if (block.error != null) {
+                    ended = true;
+                    throw block.error;
+                }
+                if (block == END) {
+                    ended = true;
+                    return false;
+                }
+                current = block;
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return (nextBlock() ? current.bytes[position++] & 0xff : -1);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextBlock()) {
+                return -1;
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current.bytes, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.interrupt();
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            source.close();
+        }
+    }
+}
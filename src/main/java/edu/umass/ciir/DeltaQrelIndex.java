@@ -0,0 +1,195 @@
+package edu.umass.ciir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A version of the relevance judgments made by applying qrels deltas (new or changed
+ * "requestID docid judgment" lines) to a loaded QrelIndex. The loaded index is not
+ * copied: only the requests a delta touches get new judgment arrays, and only their
+ * ideal gains and iDCG@R are recomputed, so applying a small delta takes time in
+ * proportion to the requests it touches rather than to the whole qrels.
+ * <p>
+ * Doc IDs and request IDs keep their ints from version to version; new ones get ints
+ * after them. Applying a delta to a DeltaQrelIndex gives a new DeltaQrelIndex over the
+ * same loaded index, so versions do not chain. Like any QrelIndex, each version is
+ * read-only once made.
+ */
+public class DeltaQrelIndex extends QrelIndex {
+    private final QrelIndex base;
+    private final DocidDictionary docids;
+    private final List<String> addedRequestIDs;
+    private final Map<String, Integer> addedRequests;
+    /* The full judgments of each request changed since base, by request int (null if unchanged) */
+    private RequestJudgments[] changed;
+
+    private DeltaQrelIndex(QrelIndex base, DocidDictionary docids, List<String> addedRequestIDs,
+                           RequestJudgments[] changed) {
+        this.base = base;
+        this.docids = docids;
+        this.addedRequestIDs = addedRequestIDs;
+        this.addedRequests = new HashMap<>();
+        for (int i = 0; i < addedRequestIDs.size(); ++i) {
+            addedRequests.put(addedRequestIDs.get(i), base.getRequestCount() + i);
+        }
+        this.changed = changed;
+    }
+
+    /**
+     * Applies a qrels delta. If the same request/docid is in the delta more than once,
+     * the last judgment wins, as in a qrels file.
+     * @param current the current judgments
+     * @param delta the delta, in qrels format
+     * @param changedRequestIDs filled in with the IDs of the requests the delta touches
+     * @return the new version of the judgments
+     * @throws IOException if the delta cannot be read
+     */
+    static DeltaQrelIndex apply(QrelIndex current, InputStream delta, Set<String> changedRequestIDs)
+            throws IOException {
+        QrelIndex base = current;
+        DocidDictionary docids = new DocidDictionary(current.getDocids());
+        List<String> addedRequestIDs = new ArrayList<>();
+        RequestJudgments[] changed = new RequestJudgments[current.getRequestCount()];
+        if (current instanceof DeltaQrelIndex) {
+            /* Start over from the loaded index, re-adding the earlier versions' new doc IDs in
+               order so they keep their ints */
+            DeltaQrelIndex previous = (DeltaQrelIndex) current;
+            base = previous.base;
+            docids = new DocidDictionary(base.getDocids());
+            for (int d = base.getDocids().size(); d < previous.docids.size(); ++d) {
+                docids.intern(previous.docids.get(d));
+            }
+            addedRequestIDs.addAll(previous.addedRequestIDs);
+            changed = previous.changed.clone();
+        }
+        DeltaQrelIndex qrels = new DeltaQrelIndex(base, docids, addedRequestIDs, changed);
+
+        /* Gather the delta's judgments by request */
+        JudgmentTable table = new JudgmentTable();
+        Map<Integer, List<Integer>> newDocids = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(delta, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens.length < 3) {
+                    throw new TasksRunnerException("Qrels delta line needs requestID docid judgment: " + line);
+                }
+                RelevanceJudgment j = new RelevanceJudgment(tokens[0], tokens[1], "", "", tokens[2]);
+                int request = qrels.internRequest(tokens[0]);
+                List<Integer> requestDocids = newDocids.get(request);
+                if (requestDocids == null) {
+                    requestDocids = new ArrayList<>();
+                    newDocids.put(request, requestDocids);
+                    changedRequestIDs.add(tokens[0]);
+                    /* Start from the request's current judgments */
+                    if (request < current.getRequestCount()) {
+                        for (int i = 0; i < current.getJudgmentCount(request); ++i) {
+                            int doc = current.getJudgedDocid(request, i);
+                            table.put(request, doc, current.getJudgedValue(request, i));
+                            requestDocids.add(doc);
+                        }
+                    }
+                }
+                int doc = docids.intern(tokens[1]);
+                if (table.get(request, doc) < 0) {
+                    requestDocids.add(doc);
+                }
+                table.put(request, doc, j.getRelevanceJudgmentValue());
+            }
+        }
+        qrels.changed = Arrays.copyOf(qrels.changed, qrels.getRequestCount());
+        for (Map.Entry<Integer, List<Integer>> entry : newDocids.entrySet()) {
+            int request = entry.getKey();
+            int[] judged = new int[entry.getValue().size()];
+            for (int i = 0; i < judged.length; ++i) {
+                judged[i] = entry.getValue().get(i);
+            }
+            qrels.changed[request] = new RequestJudgments(qrels.getRequestID(request), request, judged, table);
+        }
+        qrels.prepareIdeal(current, newDocids.keySet());
+        return qrels;
+    }
+
+    private int internRequest(String requestID) {
+        int request = getRequest(requestID);
+        if (request < 0) {
+            request = base.getRequestCount() + addedRequestIDs.size();
+            addedRequestIDs.add(requestID);
+            addedRequests.put(requestID, request);
+        }
+        return request;
+    }
+
+    @Override
+    public DocidLookup getDocids() {
+        return docids;
+    }
+
+    @Override
+    public int getRequest(String requestID) {
+        int request = base.getRequest(requestID);
+        if (request >= 0) {
+            return request;
+        }
+        Integer added = addedRequests.get(requestID);
+        return (added == null ? -1 : added);
+    }
+
+    @Override
+    public int getRequestCount() {
+        return base.getRequestCount() + addedRequestIDs.size();
+    }
+
+    @Override
+    public String getRequestID(int request) {
+        int baseCount = base.getRequestCount();
+        return (request < baseCount ? base.getRequestID(request) : addedRequestIDs.get(request - baseCount));
+    }
+
+    @Override
+    public int getJudgmentCount(int request) {
+        RequestJudgments judgments = changed[request];
+        return (judgments == null ? base.getJudgmentCount(request) : judgments.size());
+    }
+
+    @Override
+    public int getPositiveCount(int request) {
+        RequestJudgments judgments = changed[request];
+        return (judgments == null ? base.getPositiveCount(request) : judgments.getPositiveCount());
+    }
+
+    @Override
+    public int getJudgedDocid(int request, int i) {
+        RequestJudgments judgments = changed[request];
+        return (judgments == null ? base.getJudgedDocid(request, i) : judgments.docids[i]);
+    }
+
+    @Override
+    public int getJudgedValue(int request, int i) {
+        RequestJudgments judgments = changed[request];
+        return (judgments == null ? base.getJudgedValue(request, i) : judgments.values[i]);
+    }
+
+    @Override
+    public int getRelevanceJudgmentValue(int request, int docid) {
+        RequestJudgments judgments = changed[request];
+        if (judgments == null) {
+            return base.getRelevanceJudgmentValue(request, docid);
+        }
+        int i = Arrays.binarySearch(judgments.docids, docid);
+        return (i < 0 ? -1 : judgments.values[i]);
+    }
+}
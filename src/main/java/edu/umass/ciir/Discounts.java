@@ -0,0 +1,31 @@
+package edu.umass.ciir;
+
+/**
+ * The DCG rank discounts, log2(rank + 1), precomputed once for the usual ranking depths.
+ */
+public final class Discounts {
+    static final int TABLE_SIZE = 4096;
+    private static final double[] LOG2 = new double[TABLE_SIZE + 1];
+
+    static {
+        for (int rank = 1; rank <= TABLE_SIZE; ++rank) {
+            LOG2[rank] = compute(rank);
+        }
+    }
+
+    private Discounts() {
+    }
+
+    private static double compute(int rank) {
+        return Math.log(rank + 1) / Math.log(2);
+    }
+
+    /**
+     * Returns the discount for a 1-based rank: log2(rank + 1).
+     * @param rank the rank, starting at 1
+     * @return the discount
+     */
+    public static double get(int rank) {
+        return (rank <= TABLE_SIZE ? LOG2[rank] : compute(rank));
+    }
+}
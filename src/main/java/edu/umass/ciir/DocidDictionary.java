@@ -0,0 +1,124 @@
+package edu.umass.ciir;
+
+import java.util.Arrays;
+
+/**
+ * Maps doc ID (or request ID) strings to dense ints 0..size()-1, so that the rest of
+ * the evaluator can work on ints. The table is open-addressed, so a lookup does not allocate.
+ * <p>
+ * A dictionary can extend a base dictionary: strings already in the base keep the base's
+ * IDs, and new strings get IDs after them. This lets each run share the qrels' doc IDs
+ * without adding its unjudged docs to the shared (and read-only once loaded) qrels dictionary.
+ * This class is not thread-safe; a base must not be changed once it has been extended.
+ */
+public class DocidDictionary implements DocidLookup {
+    private final DocidLookup base;
+    private final int baseSize;
+    private String[] keys;
+    private int[] ids;
+    private String[] strings;
+    private int size;
+
+    DocidDictionary() {
+        this(null);
+    }
+
+    DocidDictionary(DocidLookup base) {
+        this.base = base;
+        this.baseSize = (base == null ? 0 : base.size());
+        this.keys = new String[1024];
+        this.ids = new int[1024];
+        this.strings = new String[512];
+        this.size = 0;
+    }
+
+    /**
+     * Returns the number of strings in this dictionary, including its base.
+     */
+    @Override
+    public int size() {
+        return baseSize + size;
+    }
+
+    /**
+     * Returns the ID of the given string, or -1 if it is not in the dictionary.
+     * @param s the string
+     * @return its ID, or -1
+     */
+    @Override
+    public int lookup(String s) {
+        if (base != null) {
+            int id = base.lookup(s);
+            if (id >= 0) {
+                return id;
+            }
+        }
+        int mask = keys.length - 1;
+        for (int slot = s.hashCode() & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot].equals(s)) {
+                return ids[slot];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the ID of the given string, adding it to the dictionary if it is new.
+     * @param s the string
+     * @return its ID
+     */
+    public int intern(String s) {
+        if (base != null) {
+            int id = base.lookup(s);
+            if (id >= 0) {
+                return id;
+            }
+        }
+        int mask = keys.length - 1;
+        int slot = s.hashCode() & mask;
+        for (; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot].equals(s)) {
+                return ids[slot];
+            }
+        }
+        int id = baseSize + size;
+        keys[slot] = s;
+        ids[slot] = id;
+        if (size == strings.length) {
+            strings = Arrays.copyOf(strings, size * 2);
+        }
+        strings[size++] = s;
+        if (size * 2 > keys.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the string for the given ID.
+     * @param id the ID
+     * @return the string
+     */
+    @Override
+    public String get(int id) {
+        return (id < baseSize ? base.get(id) : strings[id - baseSize]);
+    }
+
+    private void rehash() {
+        String[] newKeys = new String[keys.length * 2];
+        int[] newIds = new int[keys.length * 2];
+        int mask = newKeys.length - 1;
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != null) {
+                int slot = keys[i].hashCode() & mask;
+                while (newKeys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                newKeys[slot] = keys[i];
+                newIds[slot] = ids[i];
+            }
+        }
+        keys = newKeys;
+        ids = newIds;
+    }
+}
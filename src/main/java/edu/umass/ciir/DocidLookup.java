@@ -0,0 +1,27 @@
+package edu.umass.ciir;
+
+/**
+ * A read-only map of doc ID (or request ID) strings to dense ints 0..size()-1. A qrels
+ * index exposes its doc IDs this way; DocidDictionary adds interning, and can extend
+ * any DocidLookup as its base.
+ */
+public interface DocidLookup {
+    /**
+     * Returns the number of strings.
+     */
+    int size();
+
+    /**
+     * Returns the ID of the given string, or -1 if it is not in the dictionary.
+     * @param s the string
+     * @return its ID, or -1
+     */
+    int lookup(String s);
+
+    /**
+     * Returns the string for the given ID.
+     * @param id the ID
+     * @return the string
+     */
+    String get(int id);
+}
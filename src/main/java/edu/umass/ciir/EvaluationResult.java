@@ -0,0 +1,59 @@
+package edu.umass.ciir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The request-level scores of one run, one per metric, plus their micro-averages.
+ */
+public class EvaluationResult {
+    String runName;
+    String[] metricNames;
+    List<String> requestIDs = new ArrayList<>();
+    List<double[]> scores = new ArrayList<>();
+
+    EvaluationResult(String runName, String[] metricNames) {
+        this.runName = runName;
+        this.metricNames = metricNames;
+    }
+
+    void add(String requestID, double[] requestScores) {
+        requestIDs.add(requestID);
+        scores.add(requestScores);
+    }
+
+    public String getRunName() {
+        return runName;
+    }
+
+    public int getMetricCount() {
+        return metricNames.length;
+    }
+
+    public String getMetricName(int m) {
+        return metricNames[m];
+    }
+
+    public int size() {
+        return requestIDs.size();
+    }
+
+    public String getRequestID(int i) {
+        return requestIDs.get(i);
+    }
+
+    public double getScore(int i, int m) {
+        return scores.get(i)[m];
+    }
+
+    /**
+     * Returns the MICRO average of the request-level scores for a metric.
+     */
+    public double getTotal(int m) {
+        double total = 0.0;
+        for (double[] requestScores : scores) {
+            total += requestScores[m];
+        }
+        return total / scores.size();
+    }
+}
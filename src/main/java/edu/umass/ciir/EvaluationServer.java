@@ -0,0 +1,284 @@
+package edu.umass.ciir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A long-running evaluation service. The analytic tasks and qrels are loaded once and kept
+ * in memory, and runs are evaluated on request over HTTP on the loopback interface:
+ * <pre>
+ *   POST /evaluate?run=/path/to/runfile          evaluate a run file on this machine
+ *   POST /evaluate  (run file contents as body)  evaluate a streamed run
+ *   POST /runs?run=/path/to/runfile              evaluate a run file and keep it
+ *   GET  /runs[?run=/path/to/runfile]            the current scores of the kept runs
+ *   POST /qrels?delta=/path/to/delta             apply new judgments (or send them as the body)
+ * </pre>
+ * An optional metrics=nDCG@R,AP,... parameter picks the metrics for /evaluate (default:
+ * the server's). The response is JSON with the per-request scores and the TOTAL for each
+ * metric. Requests are handled concurrently on a fixed thread pool.
+ * <p>
+ * During assessment, new judgments can be posted to /qrels as they are made, in qrels
+ * format. Only the requests they touch are re-scored in the kept runs (see RunSet), and
+ * later evaluations use them too.
+ */
+public class EvaluationServer {
+    private static final Logger logger = Logger.getLogger("Evaluator");
+
+    private final RunSet runSet;
+    private final int port;
+    private final int threads;
+    private HttpServer server;
+    private ExecutorService pool;
+
+    EvaluationServer(Evaluator loaded, int port, int threads) {
+        this.runSet = new RunSet(loaded);
+        this.port = port;
+        this.threads = threads;
+    }
+
+    /**
+     * Starts serving. Returns once the server is listening.
+     * @throws IOException if the port cannot be bound
+     */
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        pool = Executors.newFixedThreadPool(threads);
+        server.setExecutor(pool);
+        server.createContext("/evaluate", this::handleEvaluate);
+        server.createContext("/runs", this::handleRuns);
+        server.createContext("/qrels", this::handleQrels);
+        server.start();
+        logger.info("Evaluation server listening on port " + getPort());
+    }
+
+    void stop() {
+        server.stop(0);
+        pool.shutdownNow();
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    parameters.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                            URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private void handleEvaluate(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                sendError(exchange, 405, "Use POST");
+                return;
+            }
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            String runFile = parameters.get("run");
+            Evaluator evaluator = new Evaluator(runSet.getLoaded(), (runFile == null ? "request-body" : runFile));
+            if (parameters.containsKey("metrics")) {
+                evaluator.metrics = new MetricSet(parameters.get("metrics"));
+            }
+            EvaluationResult result;
+            if (runFile != null) {
+                if (!new File(runFile).isFile()) {
+                    sendError(exchange, 404, "Run file does not exist: " + runFile);
+                    return;
+                }
+                try (InputStream in = CompressedInput.open(runFile)) {
+                    result = evaluator.evaluateRun(in);
+                }
+            } else {
+                try (InputStream in = exchange.getRequestBody()) {
+                    result = evaluator.evaluateRun(in);
+                }
+            }
+            send(exchange, 200, toJSON(result));
+        } catch (TasksRunnerException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Evaluation request failed", e);
+            sendError(exchange, 500, e.toString());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handleRuns(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            String runFile = parameters.get("run");
+            if (exchange.getRequestMethod().equals("POST")) {
+                if (runFile == null || !new File(runFile).isFile()) {
+                    sendError(exchange, 404, "Run file does not exist: " + runFile);
+                    return;
+                }
+                send(exchange, 200, toJSON(runSet.add(runFile)));
+            } else if (runFile != null) {
+                EvaluationResult result = runSet.getResult(runFile);
+                if (result == null) {
+                    sendError(exchange, 404, "Run is not kept: " + runFile);
+                    return;
+                }
+                send(exchange, 200, toJSON(result));
+            } else {
+                send(exchange, 200, totalsJSON(runSet.getResults()));
+            }
+        } catch (TasksRunnerException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Runs request failed", e);
+            sendError(exchange, 500, e.toString());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handleQrels(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                sendError(exchange, 405, "Use POST");
+                return;
+            }
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            String deltaFile = parameters.get("delta");
+            if (deltaFile != null && !new File(deltaFile).isFile()) {
+                sendError(exchange, 404, "Qrels delta file does not exist: " + deltaFile);
+                return;
+            }
+            long start = System.nanoTime();
+            Set<String> changedRequestIDs;
+            try (InputStream in = (deltaFile != null ? CompressedInput.open(deltaFile) : exchange.getRequestBody())) {
+                changedRequestIDs = runSet.applyDelta(in);
+            }
+            JSONObject json = totalsJSON(runSet.getResults());
+            JSONArray requests = new JSONArray();
+            requests.addAll(changedRequestIDs);
+            json.put("changed-requests", requests);
+            json.put("millis", (System.nanoTime() - start) / 1000000.0);
+            send(exchange, 200, json);
+        } catch (TasksRunnerException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Qrels delta failed", e);
+            sendError(exchange, 500, e.toString());
+        }
+    }
+
+    /**
+     * Converts the TOTALs of several runs to JSON: {"runs": [{"run": ..., "total": {...}}, ...]}.
+     */
+    @SuppressWarnings("unchecked")
+    static JSONObject totalsJSON(List<EvaluationResult> results) {
+        JSONArray runs = new JSONArray();
+        for (EvaluationResult result : results) {
+            JSONObject run = new JSONObject();
+            run.put("run", result.getRunName());
+            JSONObject total = new JSONObject();
+            for (int m = 0; m < result.getMetricCount(); ++m) {
+                total.put(result.getMetricName(m), result.getTotal(m));
+            }
+            run.put("total", total);
+            runs.add(run);
+        }
+        JSONObject json = new JSONObject();
+        json.put("runs", runs);
+        return json;
+    }
+
+    /**
+     * Converts request-level results to JSON:
+     * {"run": ..., "metrics": [...], "requests": [{"request": ..., metric: score, ...}, ...],
+     *  "total": {metric: score, ...}}. NaN scores are written as null.
+     */
+    @SuppressWarnings("unchecked")
+    static JSONObject toJSON(EvaluationResult result) {
+        JSONObject json = new JSONObject();
+        json.put("run", result.getRunName());
+        JSONArray metricNames = new JSONArray();
+        JSONObject total = new JSONObject();
+        for (int m = 0; m < result.getMetricCount(); ++m) {
+            metricNames.add(result.getMetricName(m));
+            total.put(result.getMetricName(m), result.getTotal(m));
+        }
+        json.put("metrics", metricNames);
+        JSONArray requests = new JSONArray();
+        for (int i = 0; i < result.size(); ++i) {
+            JSONObject request = new JSONObject();
+            request.put("request", result.getRequestID(i));
+            for (int m = 0; m < result.getMetricCount(); ++m) {
+                request.put(result.getMetricName(m), result.getScore(i, m));
+            }
+            requests.add(request);
+        }
+        json.put("requests", requests);
+        json.put("total", total);
+        return json;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        JSONObject json = new JSONObject();
+        json.put("error", message);
+        send(exchange, status, json);
+    }
+
+    private static void send(HttpExchange exchange, int status, JSONObject json) throws IOException {
+        byte[] body = json.toJSONString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Entry point for server mode.
+     * @param args [-port n] [-threads n] [-metrics list] analytic-tasks-file qrel-file
+     */
+    public static void main(String[] args) {
+        CommandLine commandLine = new CommandLine(args);
+        if (commandLine.getPositionalCount() < 2) {
+            System.out.println("evaluator serve: evaluate runs over HTTP with the tasks and qrels held in memory");
+            System.out.println("Usage: evaluator serve [-port n] [-threads n] [-metrics list] analytic-tasks-file qrel-file");
+            System.exit(-1);
+        }
+        Evaluator evaluator = new Evaluator(commandLine.getPositional(0), null, commandLine.getPositional(1), null);
+        evaluator.metrics = new MetricSet(commandLine.getOption("metrics", MetricSet.DEFAULT_METRICS));
+        evaluator.setupLogging();
+        evaluator.load();
+        EvaluationServer server = new EvaluationServer(evaluator, commandLine.getIntOption("port", 8080),
+                commandLine.getIntOption("threads", Runtime.getRuntime().availableProcessors()));
+        try {
+            server.start();
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+        System.out.println("Listening on http://localhost:" + server.getPort() + "/evaluate");
+    }
+}
@@ -0,0 +1,194 @@
+package edu.umass.ciir;
+
+import org.json.simple.JSONValue;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation for an evaluation: the wall time, CPU time and heap usage of each phase
+ * (reading the tasks, qrels and run files, and scoring), and counters of the work done.
+ * Evaluators that share loaded tasks and judgments share their stats too, so a batch
+ * evaluation adds up into one set of counters.
+ * <p>
+ * Each phase is also committed as a JFR event (edu.umass.ciir.Phase), and each scoring
+ * pass as an edu.umass.ciir.Counters event, when a flight recording is running; they
+ * cost nothing otherwise. The phases are only kept, for writing a stats file, when the
+ * stats were made with keepPhases, so a long-running server does not accumulate them.
+ * The counters are thread-safe; so are begin() and Phase.end().
+ */
+public class EvaluationStats {
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private static final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    /* JFR is in JDK 11 and later (and 8u262 and later); the event classes are only loaded where it is */
+    private static final boolean JFR = isJfrAvailable();
+
+    final LongAdder runLinesParsed = new LongAdder();
+    final LongAdder requestsScored = new LongAdder();
+    final LongAdder requestsSkippedNoRun = new LongAdder();
+    final LongAdder requestsSkippedNoJudgments = new LongAdder();
+    final LongAdder judgmentLookups = new LongAdder();
+    final LongAdder resultCacheHits = new LongAdder();
+
+    private final boolean keepPhases;
+    private final List<Phase> phases = new ArrayList<>();
+
+    /**
+     * @param keepPhases true to keep each phase's measurements for write()
+     */
+    EvaluationStats(boolean keepPhases) {
+        this.keepPhases = keepPhases;
+    }
+
+    /**
+     * One phase of an evaluation, from begin() to end().
+     */
+    class Phase {
+        final String name;
+        final String file;
+        private final long startNanos;
+        private final long startCpuNanos;
+        final long heapBefore;
+        private final Object event;
+        long wallNanos;
+        /* CPU time of the thread that ran the phase, plus any added for its helper threads */
+        long cpuNanos;
+        long heapAfter;
+        /* What the phase read or scored: requests, judgments, lines */
+        long count;
+
+        private Phase(String name, String file) {
+            this.name = name;
+            this.file = file;
+            this.event = (JFR ? JfrEvents.beginPhase() : null);
+            this.heapBefore = heapUsed();
+            this.startCpuNanos = threadCpuTime();
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Adds CPU time spent on the phase by other threads.
+         */
+        synchronized void addCpuTime(long nanos) {
+            cpuNanos += nanos;
+        }
+
+        /**
+         * Ends the phase.
+         * @param count what the phase read or scored
+         */
+        void end(long count) {
+            synchronized (this) {
+                wallNanos = System.nanoTime() - startNanos;
+                cpuNanos += threadCpuTime() - startCpuNanos;
+                heapAfter = heapUsed();
+                this.count = count;
+            }
+            if (event != null) {
+                JfrEvents.commitPhase(event, this);
+            }
+            if (keepPhases) {
+                synchronized (phases) {
+                    phases.add(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts timing a phase.
+     * @param name the phase name, e.g. "readRunFile"
+     * @param file the file the phase reads, or null
+     * @return the phase, to end() when it is done
+     */
+    Phase begin(String name, String file) {
+        return new Phase(name, file);
+    }
+
+    /**
+     * Adds up the counts of one scoring pass, and commits them as a JFR event.
+     */
+    void addScoring(String runFile, long scored, long skippedNoRun, long skippedNoJudgments, long lookups) {
+        requestsScored.add(scored);
+        requestsSkippedNoRun.add(skippedNoRun);
+        requestsSkippedNoJudgments.add(skippedNoJudgments);
+        judgmentLookups.add(lookups);
+        if (JFR) {
+            JfrEvents.commitCounters(runFile, scored, skippedNoRun, skippedNoJudgments, lookups);
+        }
+    }
+
+    /**
+     * Returns the CPU time of the current thread in nanoseconds, or 0 if the JVM does not
+     * measure it.
+     */
+    static long threadCpuTime() {
+        return (threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : 0);
+    }
+
+    private static long heapUsed() {
+        return memoryBean.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Writes the phases and counters as a JSON file:
+     * {"phases": [{"phase": ..., "file": ..., "wall-ms": ..., "cpu-ms": ..., "heap-before-bytes": ...,
+     * "heap-after-bytes": ..., "count": ...}, ...], "counters": {...}, "heap": {...}}.
+     * @param fileName the stats file name
+     */
+    void write(String fileName) {
+        List<Object> phaseList = new ArrayList<>();
+        synchronized (phases) {
+            for (Phase phase : phases) {
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("phase", phase.name);
+                json.put("file", phase.file);
+                json.put("wall-ms", phase.wallNanos / 1e6);
+                json.put("cpu-ms", phase.cpuNanos / 1e6);
+                json.put("heap-before-bytes", phase.heapBefore);
+                json.put("heap-after-bytes", phase.heapAfter);
+                json.put("count", phase.count);
+                phaseList.add(json);
+            }
+        }
+        Map<String, Object> counters = new LinkedHashMap<>();
+        counters.put("run-lines-parsed", runLinesParsed.sum());
+        counters.put("requests-scored", requestsScored.sum());
+        counters.put("requests-skipped-no-run", requestsSkippedNoRun.sum());
+        counters.put("requests-skipped-no-judgments", requestsSkippedNoJudgments.sum());
+        counters.put("judgment-lookups", judgmentLookups.sum());
+        counters.put("result-cache-hits", resultCacheHits.sum());
+        Map<String, Object> heap = new LinkedHashMap<>();
+        heap.put("used-bytes", heapUsed());
+        heap.put("committed-bytes", memoryBean.getHeapMemoryUsage().getCommitted());
+        heap.put("max-bytes", memoryBean.getHeapMemoryUsage().getMax());
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("phases", phaseList);
+        json.put("counters", counters);
+        json.put("heap", heap);
+        try (Writer writer = new FileWriter(fileName)) {
+            JSONValue.writeJSONString(json, writer);
+            writer.write("\n");
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -1,9 +1,5 @@
 package edu.umass.ciir;
 
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -28,17 +24,43 @@ public class Evaluator {
         this.evaluationRequestLevelFileName = evaluationRequestLevelFileName;
     }
 
+    /**
+     * Creates an Evaluator for another run file that shares the tasks and relevance
+     * judgments already loaded by the given Evaluator.
+     * @param loaded an Evaluator whose load() has been called
+     * @param runFile the run file to evaluate
+     */
+    Evaluator(Evaluator loaded, String runFile) {
+        this.analyticTasksFile = loaded.analyticTasksFile;
+        this.runFile = runFile;
+        this.qrelFile = loaded.qrelFile;
+        this.evaluationRequestLevelFileName = loaded.evaluationRequestLevelFileName;
+        this.qrels = loaded.qrels;
+        this.tasks = loaded.tasks;
+        this.metrics = loaded.metrics;
+        this.parseThreads = loaded.parseThreads;
+        this.cache = loaded.cache;
+        this.stats = loaded.stats;
+    }
+
     private Map<String, RequestRun> requestRuns = new HashMap<String, RequestRun>();
-    private final Map<RelevanceJudgmentKey,RelevanceJudgment> relevanceJudgments =
-            new HashMap<RelevanceJudgmentKey, RelevanceJudgment>();
+    private QrelIndex qrels = new HeapQrelIndex();
+    private DocidDictionary runDocids;
     private List<Task> tasks = new ArrayList<>();
+    MetricSet metrics = MetricSet.getDefault();
+    /* Threads used to parse a run file of at least ParallelRunFileReader.MIN_PARALLEL_SIZE */
+    int parseThreads = Runtime.getRuntime().availableProcessors();
+    /* Where to look up and store results, or null */
+    ResultCache cache;
+    /* Phase timings and counters, shared with the Evaluators that share this one's loaded files */
+    EvaluationStats stats = new EvaluationStats(false);
 
     private static final Logger logger = Logger.getLogger("Evaluator");
 
     /**
      * Sets up logging for this program.
      */
-    private void setupLogging() {
+    void setupLogging() {
         String logFileName = "evaluator.log";
         configureLogger(logFileName);
     }
@@ -68,57 +90,22 @@ public class Evaluator {
         }
     }
 
-    public class Hit {
-        public String docid;
-        public String score;
-        Hit(String docid, String score) {
-            this.docid = docid;
-            this.score = score;
-        }
-        Hit(Hit other) {
-            this.docid = other.docid;
-            this.score = other.score;
-        }
-    }
-
-    private String getOptionalValue(JSONObject t, String field) {
-        if (t.containsKey(field)) {
-            return (String) t.get(field);
-        } else {
-            return "";
-        }
-    }
-
+    /**
+     * Reads the task and request numbers from the analytic tasks file. The rest of the file
+     * (documents, narratives, request texts) is skipped without being parsed into objects.
+     */
     private void readTaskFile() {
-        try {
-            logger.info("Reading analytic tasks info file " + analyticTasksFile);
-
-            Reader reader = new BufferedReader(new InputStreamReader(
-                    new FileInputStream(analyticTasksFile)));
-            JSONParser parser = new JSONParser();
-            JSONArray tasksJSON = (JSONArray) parser.parse(reader);
-            for (Object oTask : tasksJSON) {
-                JSONObject t = (JSONObject) oTask;
-                String taskNum = (String) t.get("task-num");
-                String taskTitle = getOptionalValue(t, "task-title");
-                String taskNarr = getOptionalValue(t, "task-narr");
-                String taskStmt = "";
-                JSONArray taskRequests = (JSONArray) t.get("requests");
-                List<Request> requests = new ArrayList<>();
-                for (Object o : taskRequests) {
-                    JSONObject request = (JSONObject) o;
-                    String reqText = getOptionalValue(request, "req-text");
-                    String reqNum = (String) request.get("req-num");
-                    requests.add(new Request(reqNum, reqText));
-                }
-                tasks.add(new Task(taskNum, taskTitle, taskStmt, taskNarr, requests));
-            }
-        } catch (Exception e) {
+        logger.info("Reading analytic tasks info file " + analyticTasksFile);
+        EvaluationStats.Phase phase = stats.begin("readTaskFile", analyticTasksFile);
+        try (InputStream in = new FileInputStream(analyticTasksFile)) {
+            tasks.addAll(new TasksFileParser(in).parse());
+        } catch (IOException e) {
             throw new TasksRunnerException(e);
         }
+        phase.end(getRequestIDs().size());
     }
 
-    private List<String> getRequestIDs() {
+    List<String> getRequestIDs() {
         List<String> list = new ArrayList<String>();
         for (Task t : tasks) {
             for (Request r : t.requests) {
@@ -128,311 +115,251 @@ public class Evaluator {
         return list;
     }
 
-    public class RequestRun {
-        public String requestID;
-        public List<String> docids;
-        public List<Hit> hits;
-
-        RequestRun(String requestID, List<String> docids, List<Hit> hits) {
-            this.requestID = requestID;
-            this.docids = docids;
-            this.hits = hits;
+    /**
+     * Returns the task ID of each request ID in the tasks file.
+     */
+    Map<String, String> getRequestTaskIDs() {
+        Map<String, String> taskIDs = new HashMap<>();
+        for (Task t : tasks) {
+            for (Request r : t.requests) {
+                taskIDs.put(r.reqNum, t.taskNum);
+            }
         }
+        return taskIDs;
     }
 
-    private void readRunFile() {
+    void readRunFile() {
         File f = new File(runFile);
-        if (f.exists()) {
+        EvaluationStats.Phase phase = stats.begin("readRunFile", runFile);
+        long lines = 0;
+        if (f.exists() && parseThreads > 1 && f.length() >= ParallelRunFileReader.MIN_PARALLEL_SIZE
+                && !CompressedInput.isCompressed(runFile)) {
+            runDocids = new DocidDictionary(qrels.getDocids());
+            ParallelRunFileReader reader = new ParallelRunFileReader(qrels.getDocids(), runDocids, parseThreads);
+            for (RequestRun requestRun : reader.read(runFile)) {
+                requestRuns.put(requestRun.requestID, requestRun);
+            }
+            lines = reader.getLineCount();
+            stats.runLinesParsed.add(lines);
+            phase.addCpuTime(reader.getWorkerCpuTime());
+        } else if (f.exists()) {
             logger.info("Opening run file " + runFile);
-            List<String> docids = new ArrayList<>();
-            List<Hit> hits = new ArrayList<>();
-            try (BufferedReader br = new BufferedReader(new FileReader(runFile))) {
-                String line;
-                String prevQueryID = "NONE";
-                int docidsAdded = 0;
-                while ((line = br.readLine()) != null) {
-                    String queryID = line.split("[ \t]+")[0];
-                    if (!prevQueryID.equals(queryID)) {
-                        if (!prevQueryID.equals("NONE")) {
-                            // Clone the lists
-                            List<String> cloned_docid_list
-                                    = new ArrayList<String>(docids);
-                            List<Hit> cloned_hit_list
-                                    = new ArrayList<Hit>(hits);
-                            RequestRun r = new RequestRun(prevQueryID, cloned_docid_list, cloned_hit_list);
-                            requestRuns.put(prevQueryID, r);
-                            docids.clear();
-                            hits.clear();
-                            docidsAdded = 0;
-                        }
-                    }
-                    prevQueryID = queryID;
-                    String[] tokens = line.split("[ \t]+");
-                    String docid = tokens[2];
-                    String score = tokens[4];
-                    docids.add(docid);
-                    Hit h = new Hit(docid, score);
-                    hits.add(h);
-                    ++docidsAdded;
-                }
-                if (!prevQueryID.equalsIgnoreCase("")) {
-                    // Clone the lists
-                    List<String> cloned_docid_list
-                            = new ArrayList<String>(docids);
-                    List<Hit> cloned_hit_list
-                            = new ArrayList<Hit>(hits);
-                    RequestRun r = new RequestRun(prevQueryID, cloned_docid_list, cloned_hit_list);
-                    requestRuns.put(prevQueryID, r);
-                }
+            try (InputStream in = CompressedInput.open(runFile)) {
+                lines = readRun(in);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         } else {
             logger.info("Run file requested does not exist: " + runFile);
         }
+        phase.end(lines);
+    }
+
+    /**
+     * Reads run file contents from a stream and creates requestRuns.
+     * @param in the run file contents
+     * @return the number of lines read
+     * @throws IOException if the stream cannot be read
+     */
+    private long readRun(InputStream in) throws IOException {
+        runDocids = new DocidDictionary(qrels.getDocids());
+        long lines = new RunFileParser(new RequestRunBuilder()).parse(in);
+        stats.runLinesParsed.add(lines);
+        return lines;
     }
 
-    private class RelevanceJudgmentKey {
-        String requestID;
-        String docid;
-        RelevanceJudgmentKey(String requestID, String docid) {
-            this.requestID = requestID;
-            this.docid = docid;
+    /**
+     * Builds a RequestRun, holding the top-ranked MetricSet.MAX_DEPTH hits, for each
+     * request block of the run file and puts it in requestRuns.
+     */
+    private class RequestRunBuilder implements RunFileParser.Listener {
+        private RequestRun requestRun;
+
+        @Override
+        public void startRequest(String requestID) {
+            requestRun = new RequestRun(requestID, MetricSet.MAX_DEPTH, runDocids);
+            requestRuns.put(requestID, requestRun);
         }
+
         @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            RelevanceJudgmentKey oKey = (RelevanceJudgmentKey) o;
-            if (!requestID.equals(oKey.requestID)) return false;
-            return (docid.equals(oKey.docid));
+        public void hit(String docid, double score) {
+            requestRun.offer(docid, score);
         }
+
         @Override
-        public int hashCode() {
-            int result = requestID.hashCode();
-            result = 31 * result + (docid.hashCode());
-            return result;
+        public void endRequest() {
+            requestRun.finish();
         }
     }
 
     /**
-     * Reads the relevance judgments file and creates relevanceJudgments.
+     * Reads the relevance judgments file and creates the judgment index.
+     * A qrels file compiled with compile-qrels is memory-mapped instead of parsed.
      */
     private void readQRELFile() {
         File f = new File(qrelFile);
+        EvaluationStats.Phase phase = stats.begin("readQRELFile", qrelFile);
         if (f.exists()) {
-            try {
-            BufferedReader qrelReader = new BufferedReader(new InputStreamReader(
-                    new FileInputStream(qrelFile)));
-            String line = qrelReader.readLine();
-            while (line != null) {
-                String[] tokens = line.split(" ");
-                String requestID = tokens[0];
-                String docid = tokens[1];
-                String judgment = tokens[2];
-                RelevanceJudgment j = new RelevanceJudgment(requestID, docid, "", "", judgment);
-                RelevanceJudgmentKey jk = new RelevanceJudgmentKey(requestID,docid);
-                relevanceJudgments.put(jk, j);
-                line = qrelReader.readLine();
-            }
-            qrelReader.close();
-            } catch (IOException e) {
-                throw new TasksRunnerException(e);
-            }
+            qrels = QrelIndex.read(qrelFile);
+        }
+        long judgments = 0;
+        for (int request = 0; request < qrels.getRequestCount(); ++request) {
+            judgments += qrels.getJudgmentCount(request);
         }
+        phase.end(judgments);
+    }
+
+    QrelIndex getQrels() {
+        return qrels;
     }
 
     /**
-     * Returns a list of relevance judgment objects for this request, but only for those where
-     * the judgment is relevant in some way (not "not relevant").
-     * There might be multiple relevance judgment objects per request/docid.
-     * @param requestID the request ID
-     * @return a list of relevance judgment objects
+     * Returns an Evaluator that shares everything this one has loaded except the relevance
+     * judgments, which are replaced (e.g. by a newer version with a qrels delta applied).
+     * @param qrels the judgments to use
+     * @return the new Evaluator
      */
-    private List<RelevanceJudgment> getPositiveRelevanceJudgments(String requestID) {
-        List<RelevanceJudgment> judgments = new ArrayList<>();
-        for (Map.Entry<RelevanceJudgmentKey, RelevanceJudgment> entry : relevanceJudgments.entrySet()) {
-            RelevanceJudgmentKey k = entry.getKey();
-            RelevanceJudgment j = entry.getValue();
-            if (k.requestID.equals(requestID)) {
-                if (j.judgment.isRelevant() ) { /* Don't include judgments of "not relevant" */
-                    judgments.add(new RelevanceJudgment(j));
-                }
-            }
-        }
-        return judgments;
+    Evaluator withQrels(QrelIndex qrels) {
+        Evaluator evaluator = new Evaluator(this, runFile);
+        evaluator.qrels = qrels;
+        /* Cache keys hash the qrels file, which no longer describes these judgments */
+        evaluator.cache = null;
+        return evaluator;
     }
 
-    private List<String> getDocids(String requestID, int size) {
-        if (requestRuns.containsKey(requestID)) {
-            List<String> docids = requestRuns.get(requestID).docids;
-            if (size < docids.size()) {
-                return docids.subList(0, size);
-            } else {
-                return docids;
-            }
-        } else {
-            return new ArrayList<String>();
-        }
+    /**
+     * Returns the dictionary the run's doc IDs were interned in; it extends the dictionary
+     * of the qrels the run was read with.
+     */
+    DocidDictionary getRunDocids() {
+        return runDocids;
+    }
+
+    RequestRun getRequestRun(String requestID) {
+        return requestRuns.get(requestID);
     }
 
     /**
-     * Returns true if this request has any relevance judgments, else return false.
-     * @param requestID the request ID
-     * @return true if this request has any relevance judgments else false
+     * Returns the IDs of the requests the run file has hits for.
      */
-    private Boolean hasRelevanceJudgments(String requestID) {
-        for (Map.Entry<RelevanceJudgmentKey, RelevanceJudgment> entry : relevanceJudgments.entrySet()) {
-            RelevanceJudgmentKey k = entry.getKey();
-            RelevanceJudgment j = entry.getValue();
-            if (k.requestID.equals(requestID)) {
-                return true;
-            }
-        }
-        return false;
+    Set<String> getRunRequestIDs() {
+        return requestRuns.keySet();
     }
 
     /**
-     * Returns the relevance judgment integer value, mapped as MITRE maps them for the IR
-     * nDCG calculation, for the given request and doc ID.
+     * Returns true if this request has any relevance judgments, else return false.
      * @param requestID the request ID
-     * @param docid the doc ID
-     * @return the mapped relevance judgment integer value
+     * @return true if this request has any relevance judgments else false
      */
-    private int getRelevanceJudgmentValueWithMapping(String requestID, String docid) {
-        RelevanceJudgmentKey jk = new RelevanceJudgmentKey(requestID,docid);
-        RelevanceJudgment j = relevanceJudgments.get(jk);
-        if (j == null) {
-            return 0;  // for unjudged, assume not relevant
-        } else {
-            return j.getRelevanceJudgmentValueWithMapping();
-        }
+    Boolean hasRelevanceJudgments(String requestID) {
+        return qrels.getRequest(requestID) >= 0;
     }
 
     /**
-     * Evaluates a run file, request level.
+     * Calculates nDCG@R for a request and the first depth docids of a ranking.
+     * The iDCG@R was computed when the qrels were loaded.
+     *
+     * @param qrels The relevance judgments.
+     * @param request The request int.
+     * @param docids The ranked docid ints.
+     * @param depth The number of docids to consider.
+     * @return The calculated nDCG.
      */
-    private void evaluate() {
-        BetterEvaluator b = new BetterEvaluator();
-        b.evaluate();
+    static double calculatenDCG(QrelIndex qrels, int request, int[] docids, int depth) {
+        int cutoff = Math.min(depth, qrels.getPositiveCount(request));
+        double iDCG = qrels.getIdealDCG(request);
+        /* Calculate discounted cumulative gain of the ranked hits */
+        double DCG = 0.0;
+        for (int i = 0; i < cutoff; ++i) {
+            DCG += (qrels.getRelevanceJudgmentValueWithMapping(request, docids[i]) / Discounts.get(i + 1));
+        }
+        /* Calculate the normalized discounted cumulative gain */
+        return DCG / iDCG;
     }
 
     public class BetterEvaluator {
         /**
-         * Calculates the normalized discounted cumulative gain
-         * for this request and this ranked set of docs.
+         * Scores each request that has both a run and relevance judgments, computing all
+         * of the chosen metrics in one pass over each ranking.
          *
-         * @param requestID The request, with its relevance judgments available.
-         * @param runDocids The ranked hits.
-         * @return The calculated nDCG.
+         * @return the request-level scores for this run
          */
-
-        private Map<String, Double> stats = new TreeMap<>();
-
-        /** This version computes nDCG to the depth equal to the number
-         * of known relevant documents ("R"), instead of a hard cutoff of 10
-         * as in his original version.
-         *
-         * @param requestID
-         * @param runDocids
-         * @return
-         */
-        private double calculatenDCG(String requestID, List<String> runDocids) {
-            List<RelevanceJudgment> judgments = getPositiveRelevanceJudgments(requestID);
-            int cutoff = judgments.size();
-            /* Calculate the ideal discounted cumulative gain for this query */
-            judgments.sort(Comparator.comparingInt(RelevanceJudgment::getRelevanceJudgmentValue)
-                    .reversed());
-            double iDCG = 0.0;
-            int index = 1;
-            for (RelevanceJudgment j : judgments) {
-                if (index == 1) {
-                    iDCG += j.getRelevanceJudgmentValueWithMapping();
-                } else {
-                    iDCG += (j.getRelevanceJudgmentValueWithMapping() / ((Math.log(index + 1) / Math.log(2))));
+        public EvaluationResult score() {
+            EvaluationStats.Phase phase = stats.begin("evaluate", runFile);
+            EvaluationResult result = new EvaluationResult(runFile, metrics.getNames());
+            MetricSet.Engine engine = metrics.newEngine();
+            long skippedNoRun = 0;
+            long skippedNoJudgments = 0;
+            long lookups = 0;
+            for (String requestID : getRequestIDs()) {
+                RequestRun run = getRequestRun(requestID);
+                /* If this solution did not provide a query for this request, skip it */
+                if (run == null || run.size == 0) {
+                    ++skippedNoRun;
+                    continue;
                 }
-                ++index;
-            }
-            /* Calculate discounted cumulative gain of the ranked hits */
-            double DCG = 0.0;
-            index = 1;
-            for (String docid : runDocids) {
-                if (index == 1) {
-                    DCG += getRelevanceJudgmentValueWithMapping(requestID, docid);
-                } else {
-                    DCG += (getRelevanceJudgmentValueWithMapping(requestID, docid)
-                            / ((Math.log(index + 1) / Math.log(2))));
-                }
-                ++index;
-                if (index > cutoff) {
-                    break;
+                /* If we have no relevance judgments for this request, skip it */
+                if (!hasRelevanceJudgments(requestID)) {
+                    ++skippedNoJudgments;
+                    continue;
                 }
+                double[] scores = new double[metrics.size()];
+                lookups += engine.score(qrels, qrels.getRequest(requestID), run.docids, run.size, scores);
+                result.add(requestID, scores);
             }
-            /* Calculate the normalized discounted cumulative gain */
-            double nCDG = DCG / iDCG;
-            return nCDG;
+            stats.addScoring(runFile, result.size(), skippedNoRun, skippedNoJudgments, lookups);
+            phase.end(result.size());
+            return result;
         }
 
         /**
-         * Evaluates the query formulations and outputs a CSV file of evaluation results.
-         * This version only calculates nDCG@R.
+         * Evaluates the query formulations and outputs a CSV file of evaluation results,
+         * with a column for each metric (by default only nDCG@R).
          * <p>
          * For averaging the evaluation results, we use the MICRO approach.
-         *
-         * @throws IOException
-         * @throws InterruptedException
          */
         public void evaluate() {
-            try {
-                /* Create and open the output CSV file */
-                FileWriter csvWriter = new FileWriter(evaluationRequestLevelFileName);
-                /* Write the header line */
-                csvWriter.append("Request");
-                csvWriter.append(",");
-                csvWriter.append("nDCG@R");
-                csvWriter.append("\n");
-
-                List<String> requestIDs = getRequestIDs();
-                ListIterator<String> requestIDIterator = requestIDs.listIterator();
-
-                int totalRequests = 0;
-                double totalnDCG = 0.0;
-
-                while (requestIDIterator.hasNext()) {
-                    String requestID = requestIDIterator.next();
-                    List<String> runDocids = getDocids(requestID, 1000);
-                    /* If this solution did not provide a query for this request, skip it */
-                    if (runDocids.size() == 0) {
-                        continue;
-                    }
-                    /* If we have no relevance judgments for this request, skip it */
-                    if (!hasRelevanceJudgments(requestID)) {
-                        continue;
-                    }
-
-                    ++totalRequests;
-
-                    double nDCG = calculatenDCG(requestID, runDocids);
+            writeCSV(score(), evaluationRequestLevelFileName);
+        }
+    }
 
-                    totalnDCG += nDCG;
+    /**
+     * Writes request-level scores as a CSV file: a header line, a line per request with a
+     * column per metric, and a TOTAL line with the MICRO averages.
+     * @param result the scores
+     * @param fileName the CSV file name
+     */
+    static void writeCSV(EvaluationResult result, String fileName) {
+        try {
+            /* Create and open the output CSV file */
+            FileWriter csvWriter = new FileWriter(fileName);
+            /* Write the header line */
+            csvWriter.append("Request");
+            for (int m = 0; m < result.getMetricCount(); ++m) {
+                csvWriter.append(",");
+                csvWriter.append(result.getMetricName(m));
+            }
+            csvWriter.append("\n");
 
-                    csvWriter.append(requestID);
+            for (int i = 0; i < result.size(); ++i) {
+                csvWriter.append(result.getRequestID(i));
+                for (int m = 0; m < result.getMetricCount(); ++m) {
                     csvWriter.append(",");
-                    csvWriter.append(String.format("%.4f", nDCG));
-                    csvWriter.append("\n");
+                    csvWriter.append(String.format("%.4f", result.getScore(i, m)));
                 }
-
-                double microAvgnDCG = totalnDCG / totalRequests;
-
-                csvWriter.append("TOTAL");
-                csvWriter.append(",");
-                csvWriter.append(String.format("%.4f", microAvgnDCG));
                 csvWriter.append("\n");
+            }
 
-                csvWriter.close();
-            } catch (Exception e) {
-                throw new TasksRunnerException(e.getMessage());
+            csvWriter.append("TOTAL");
+            for (int m = 0; m < result.getMetricCount(); ++m) {
+                csvWriter.append(",");
+                csvWriter.append(String.format("%.4f", result.getTotal(m)));
             }
+            csvWriter.append("\n");
+
+            csvWriter.close();
+        } catch (Exception e) {
+            throw new TasksRunnerException(e.getMessage());
         }
     }
 
@@ -440,32 +367,185 @@ public class Evaluator {
      * Processes the analytic tasks file: generates queries for the Tasks and Requests,
      * executes the queries, annotates hits with events.
      */
-    private void process() {
+    private EvaluationResult process() {
+        /* A cached result needs none of the files to be parsed */
+        String key = (cache == null ? null : cache.key(analyticTasksFile, qrelFile, runFile, metrics));
+        EvaluationResult result = (key == null ? null : cache.get(key, runFile));
+        if (result != null) {
+            stats.resultCacheHits.increment();
+        } else {
+            readTaskFile();
+            readQRELFile();
+            readRunFile();
+            result = new BetterEvaluator().score();
+            if (key != null) {
+                cache.put(key, result);
+            }
+        }
+        writeCSV(result, evaluationRequestLevelFileName);
+        return result;
+    }
+
+    /**
+     * Adds a result to a result store, reading the tasks file for the requests' task IDs
+     * if it has not been read (when the result came from the cache).
+     * @param storeDir the result store directory
+     * @param result the result to add
+     */
+    private void addToStore(String storeDir, EvaluationResult result) {
+        if (tasks.isEmpty()) {
+            readTaskFile();
+        }
+        try (ResultStore.Writer store = ResultStore.append(storeDir)) {
+            store.add(Paths.get(result.getRunName()).getFileName().toString(), result, getRequestTaskIDs());
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+    }
+
+    /**
+     * Reads the analytic tasks file and the relevance judgments file, so that this
+     * Evaluator can be shared by the evaluations of many run files.
+     */
+    void load() {
         readTaskFile();
-        readRunFile();
         readQRELFile();
-        evaluate();
+    }
+
+    /**
+     * Reads the analytic tasks file and takes relevance judgments that are already loaded
+     * (e.g. one of several qrels variants) instead of reading the qrels file.
+     * @param qrels the judgments to use
+     */
+    void load(QrelIndex qrels) {
+        readTaskFile();
+        this.qrels = qrels;
+    }
+
+    /**
+     * Reads the run file and scores it against the already-loaded tasks and judgments.
+     * @return the request-level scores for this run
+     */
+    EvaluationResult evaluateRun() {
+        String key = (cache == null ? null : cache.key(analyticTasksFile, qrelFile, runFile, metrics));
+        EvaluationResult result = (key == null ? null : cache.get(key, runFile));
+        if (result != null) {
+            stats.resultCacheHits.increment();
+        } else {
+            readRunFile();
+            result = new BetterEvaluator().score();
+            if (key != null) {
+                cache.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads a run from a stream and scores it against the already-loaded tasks and judgments.
+     * @param in the run file contents
+     * @return the request-level scores for this run
+     * @throws IOException if the stream cannot be read
+     */
+    EvaluationResult evaluateRun(InputStream in) throws IOException {
+        EvaluationStats.Phase phase = stats.begin("readRunFile", null);
+        phase.end(readRun(in));
+        return new BetterEvaluator().score();
     }
 
     /**
      * Public entry point for this class.
      */
     public static void main (String[] args) {
+        if (args.length > 0) {
+            String[] subcommandArgs = Arrays.copyOfRange(args, 1, args.length);
+            switch (args[0]) {
+                case "batch":
+                    BatchEvaluator.main(subcommandArgs);
+                    return;
+                case "compile-qrels":
+                    MappedQrelIndex.main(subcommandArgs);
+                    return;
+                case "compare":
+                    CompareEvaluator.main(subcommandArgs);
+                    return;
+                case "serve":
+                    EvaluationServer.main(subcommandArgs);
+                    return;
+                case "stream":
+                    StreamingEvaluator.main(subcommandArgs);
+                    return;
+                case "curve":
+                    NdcgCurve.main(subcommandArgs);
+                    return;
+                case "sort":
+                    ExternalSortEvaluator.main(subcommandArgs);
+                    return;
+                case "fuse":
+                    FusionEvaluator.main(subcommandArgs);
+                    return;
+                case "variants":
+                    VariantEvaluator.main(subcommandArgs);
+                    return;
+                case "query":
+                    ResultStore.main(subcommandArgs);
+                    return;
+                default:
+                    break;
+            }
+        }
         for (int x = 0; x < args.length; ++x) {
             System.out.println(x + ": " + args[x]);
         }
-        if (args.length < 4) {
-            System.out.println("evaluator: calculate nDCG@R as per BETTER");
-            System.out.println("Usage: evaluator analytic-tasks-file run-file qrel-file output-file");
+        CommandLine commandLine = new CommandLine(args);
+        if (commandLine.getPositionalCount() < 4) {
+            System.out.println("evaluator: calculate nDCG@R (or other metrics) as per BETTER");
+            System.out.println("Usage: evaluator [-metrics list] [-parse-threads n] [-cache dir] [-cache-size MB] [-stats file]"
+                    + " [-store dir] analytic-tasks-file run-file qrel-file output-file");
+            System.out.println("       evaluator batch [-metrics list] [-cache dir] [-cache-size MB] [-stats file] [-store dir]"
+                    + " analytic-tasks-file run-dir-or-glob qrel-file output-file [threads]");
+            System.out.println("       evaluator compile-qrels qrel-file compiled-qrel-file");
+            System.out.println("       evaluator compare [-metric name] [-iterations n] [-seed n] [-threads n]"
+                    + " analytic-tasks-file qrel-file output-file baseline-run run...");
+            System.out.println("       evaluator serve [-port n] [-threads n] [-metrics list] analytic-tasks-file qrel-file");
+            System.out.println("       evaluator stream [-follow] [-idle-timeout seconds] [-metrics list]"
+                    + " analytic-tasks-file run-file qrel-file output-file");
+            System.out.println("       evaluator curve [-depth n] [-cutoffs list]"
+                    + " analytic-tasks-file run-file qrel-file output-file");
+            System.out.println("       evaluator sort [-memory MB] [-temp-dir dir] [-metrics list]"
+                    + " analytic-tasks-file run-file qrel-file output-file");
+            System.out.println("       evaluator fuse [-method rrf|combsum|combmnz] [-rrf-k n] [-depth n]"
+                    + " [-output-run file] [-tag name] [-metrics list] analytic-tasks-file qrel-file output-file run...");
+            System.out.println("       evaluator variants [-metrics list]"
+                    + " analytic-tasks-file run-file output-file qrel-file...");
+            System.out.println("       evaluator query [-metric name] [-top n] store-dir leaderboard|best-runs|tasks");
+            System.out.println("Metrics (comma-separated): nDCG@R nDCG@k AP P@k R-prec recall@k bpref"
+                    + " judged@k holes@k nDCG'@R nDCG'@k; default "
+                    + MetricSet.DEFAULT_METRICS);
             System.exit(-1);
         }
-        String analyticTasksFile = args[0];
-        String runFile = args[1];
-        String qrelFile = args[2];
-        String evaluationRequestLevelFileName = args[3];
+        String analyticTasksFile = commandLine.getPositional(0);
+        String runFile = commandLine.getPositional(1);
+        String qrelFile = commandLine.getPositional(2);
+        String evaluationRequestLevelFileName = commandLine.getPositional(3);
         Evaluator betterIR = new Evaluator(analyticTasksFile, runFile, qrelFile, evaluationRequestLevelFileName);
+        betterIR.metrics = new MetricSet(commandLine.getOption("metrics", MetricSet.DEFAULT_METRICS));
+        betterIR.parseThreads = commandLine.getIntOption("parse-threads", betterIR.parseThreads);
+        betterIR.cache = ResultCache.fromCommandLine(commandLine);
+        String statsFile = commandLine.getOption("stats", null);
+        if (statsFile != null) {
+            betterIR.stats = new EvaluationStats(true);
+        }
+
+        String storeDir = commandLine.getOption("store", null);
 
         betterIR.setupLogging();
-        betterIR.process();
+        EvaluationResult result = betterIR.process();
+        if (storeDir != null) {
+            betterIR.addToStore(storeDir, result);
+        }
+        if (statsFile != null) {
+            betterIR.stats.write(statsFile);
+        }
     }
 }
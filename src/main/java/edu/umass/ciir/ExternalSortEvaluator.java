@@ -0,0 +1,416 @@
+package edu.umass.ciir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Evaluates a run file whose lines need not be grouped by request, in a fixed amount of
+ * memory however big the run is. Hits are buffered until they reach the memory budget,
+ * then sorted by request and rank and spilled to a temporary file, keeping only each
+ * request's top MetricSet.MAX_DEPTH. The spill files (and the last, unspilled hits) are
+ * then merged, so each request's hits come out once, together and in rank order, and
+ * each request is scored as it goes by. No more than MAX_MERGE_FILES spill files are read
+ * at once: while there are more, the oldest are merged into a new spill file first.
+ * <p>
+ * Hits are ranked as RequestRun ranks them, by descending score and then descending doc
+ * ID, so the scores are the same as a normal evaluation's of the same hits. Unlike a
+ * normal evaluation, a request whose lines are spread over the file has all of them
+ * counted, not just its last block's.
+ */
+public class ExternalSortEvaluator implements RunFileParser.Listener {
+    private static final Logger logger = Logger.getLogger("Evaluator");
+
+    /* Rough heap bytes per buffered hit, not counting its doc ID's characters */
+    private static final int HIT_OVERHEAD = 96;
+    private static final int SPILL_BUFFER_SIZE = 1 << 16;
+    /* The most spill files to merge at once, the last unspilled hits counting as one */
+    static final int MAX_MERGE_FILES = 64;
+
+    /** Hits in run order: by request ID, then descending score, then descending doc ID. */
+    private static final Comparator<Hit> RUN_ORDER = (a, b) -> {
+        int c = a.requestID.compareTo(b.requestID);
+        if (c == 0) {
+            c = Double.compare(b.score, a.score);
+        }
+        return (c != 0 ? c : b.docid.compareTo(a.docid));
+    };
+
+    private static class Hit {
+        final String requestID;
+        final String docid;
+        final double score;
+
+        Hit(String requestID, String docid, double score) {
+            this.requestID = requestID;
+            this.docid = docid;
+            this.score = score;
+        }
+    }
+
+    private final Evaluator loaded;
+    /* The tasks file's request IDs that have judgments, so the only ones worth buffering */
+    private final Map<String, String> scoredRequestIDs = new HashMap<>();
+    private final Set<String> taskRequestIDs;
+    private final Set<String> unjudgedRequestIDs = new HashSet<>();
+    private final long memoryBudget;
+    private final File tempDir;
+    private final List<File> spillFiles = new ArrayList<>();
+    private final List<Hit> buffer = new ArrayList<>();
+    private long bufferBytes = 0;
+    private String requestID;
+
+    /**
+     * @param loaded an Evaluator whose load() has been called
+     * @param memoryBudget the bytes of hits to buffer before spilling them
+     * @param tempDir where to put the spill files, or null for the default temporary directory
+     */
+    ExternalSortEvaluator(Evaluator loaded, long memoryBudget, File tempDir) {
+        this.loaded = loaded;
+        this.memoryBudget = memoryBudget;
+        this.tempDir = tempDir;
+        this.taskRequestIDs = new HashSet<>(loaded.getRequestIDs());
+        for (String taskRequestID : taskRequestIDs) {
+            if (loaded.hasRelevanceJudgments(taskRequestID)) {
+                scoredRequestIDs.put(taskRequestID, taskRequestID);
+            }
+        }
+    }
+
+    @Override
+    public void startRequest(String requestID) {
+        /* Use one String per request, however scattered its lines are; null skips the request */
+        this.requestID = scoredRequestIDs.get(requestID);
+        if (this.requestID == null && taskRequestIDs.contains(requestID)) {
+            unjudgedRequestIDs.add(requestID);
+        }
+    }
+
+    @Override
+    public void hit(String docid, double score) {
+        if (requestID == null) {
+            return;
+        }
+        buffer.add(new Hit(requestID, docid, score));
+        bufferBytes += HIT_OVERHEAD + 2L * docid.length();
+        if (bufferBytes >= memoryBudget) {
+            spill();
+        }
+    }
+
+    @Override
+    public void endRequest() {
+    }
+
+    /**
+     * Sorts the buffered hits and writes each request's top MetricSet.MAX_DEPTH of them to
+     * a new spill file.
+     */
+    private void spill() {
+        buffer.sort(RUN_ORDER);
+        try {
+            writeSpill(new BufferSource(buffer));
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+        logger.info("Spilled " + buffer.size() + " hits to " + spillFiles.get(spillFiles.size() - 1));
+        buffer.clear();
+        bufferBytes = 0;
+    }
+
+    /**
+     * Writes each request's top MetricSet.MAX_DEPTH hits to a new spill file.
+     * @param hits the hits, in run order
+     */
+    private void writeSpill(Source hits) throws IOException {
+        File spillFile = File.createTempFile("run", ".spill", tempDir);
+        spillFile.deleteOnExit();
+        spillFiles.add(spillFile);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(spillFile), SPILL_BUFFER_SIZE))) {
+            String previous = null;
+            int rank = 0;
+            for (hits.advance(); hits.current != null; hits.advance()) {
+                Hit hit = hits.current;
+                rank = (hit.requestID.equals(previous) ? rank + 1 : 1);
+                previous = hit.requestID;
+                if (rank <= MetricSet.MAX_DEPTH) {
+                    out.writeUTF(hit.requestID);
+                    out.writeDouble(hit.score);
+                    out.writeUTF(hit.docid);
+                }
+            }
+        }
+    }
+
+    /**
+     * A sorted sequence of hits being merged, positioned at its current hit.
+     */
+    private abstract static class Source {
+        Hit current;
+
+        /**
+         * Moves to the next hit, leaving current null at the end.
+         */
+        abstract void advance() throws IOException;
+
+        void close() throws IOException {
+        }
+    }
+
+    private static class BufferSource extends Source {
+        private final List<Hit> hits;
+        private int next = 0;
+
+        BufferSource(List<Hit> hits) {
+            this.hits = hits;
+        }
+
+        @Override
+        void advance() {
+            current = (next < hits.size() ? hits.get(next++) : null);
+        }
+    }
+
+    private static class SpillSource extends Source {
+        private final DataInputStream in;
+
+        SpillSource(File spillFile, int bufferSize) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile), bufferSize));
+        }
+
+        @Override
+        void advance() throws IOException {
+            String nextRequestID;
+            try {
+                nextRequestID = in.readUTF();
+            } catch (EOFException e) {
+                current = null;
+                return;
+            }
+            double score = in.readDouble();
+            current = new Hit(nextRequestID, in.readUTF(), score);
+        }
+
+        @Override
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * The merge of several sorted sources, itself sorted.
+     */
+    private static class MergedSource extends Source {
+        private final List<Source> sources;
+        private final PriorityQueue<Source> queue;
+        /* The source current came from, to advance next time; null before the first hit */
+        private Source head = null;
+
+        MergedSource(List<Source> sources) {
+            this.sources = sources;
+            this.queue = new PriorityQueue<>(Math.max(1, sources.size()),
+                    (a, b) -> RUN_ORDER.compare(a.current, b.current));
+        }
+
+        @Override
+        void advance() throws IOException {
+            if (head == null) {
+                for (Source source : sources) {
+                    source.advance();
+                    if (source.current != null) {
+                        queue.add(source);
+                    }
+                }
+            } else {
+                head.advance();
+                if (head.current != null) {
+                    queue.add(head);
+                }
+            }
+            head = queue.poll();
+            current = (head == null ? null : head.current);
+        }
+
+        @Override
+        void close() throws IOException {
+            for (Source source : sources) {
+                source.close();
+            }
+        }
+    }
+
+    /**
+     * Opens spill files to merge, adding them to sources as they open.
+     * @param files the spill files
+     * @param sources where to add them, so that they are closed even if a later one
+     *                cannot be opened
+     */
+    private void openSpills(List<File> files, List<Source> sources) throws IOException {
+        /* Split what the buffered hits were allowed between the spill files' read buffers */
+        int bufferSize = (int) Math.max(4096, Math.min(SPILL_BUFFER_SIZE,
+                memoryBudget / Math.max(1, 2 * Math.min(files.size(), MAX_MERGE_FILES))));
+        for (File spillFile : files) {
+            sources.add(new SpillSource(spillFile, bufferSize));
+        }
+    }
+
+    /**
+     * Merges the oldest spill files into one until, with the last unspilled hits, there are
+     * no more than MAX_MERGE_FILES to merge.
+     */
+    private void reduceSpills() throws IOException {
+        while (spillFiles.size() >= MAX_MERGE_FILES) {
+            List<File> group = new ArrayList<>(spillFiles.subList(0, MAX_MERGE_FILES));
+            MergedSource merged = new MergedSource(new ArrayList<>());
+            try {
+                openSpills(group, merged.sources);
+                writeSpill(merged);
+            } finally {
+                merged.close();
+            }
+            logger.info("Merged " + group.size() + " spill files into " + spillFiles.get(spillFiles.size() - 1));
+            spillFiles.subList(0, MAX_MERGE_FILES).clear();
+            deleteSpills(group);
+        }
+    }
+
+    private static void deleteSpills(List<File> files) {
+        for (File spillFile : files) {
+            if (!spillFile.delete()) {
+                logger.warning("Cannot delete spill file " + spillFile);
+            }
+        }
+    }
+
+    /**
+     * Reads and scores a run file.
+     * @param in the run file contents
+     * @param runName the run name to give the result
+     * @return the request-level scores, in tasks file order
+     * @throws IOException if the run or a spill file cannot be read or written
+     */
+    EvaluationResult evaluate(InputStream in, String runName) throws IOException {
+        EvaluationStats.Phase phase = loaded.stats.begin("sortRunFile", runName);
+        long lines = new RunFileParser(this).parse(in);
+        loaded.stats.runLinesParsed.add(lines);
+        phase.end(lines);
+        phase = loaded.stats.begin("evaluate", runName);
+        buffer.sort(RUN_ORDER);
+        MergedSource merged = new MergedSource(new ArrayList<>());
+        try {
+            reduceSpills();
+            openSpills(spillFiles, merged.sources);
+            merged.sources.add(new BufferSource(buffer));
+            logger.info("Merging " + lines + " run file lines from " + spillFiles.size() + " spill files");
+            Map<String, double[]> scores = merge(merged);
+            EvaluationResult result = new EvaluationResult(runName, loaded.metrics.getNames());
+            for (String taskRequestID : loaded.getRequestIDs()) {
+                double[] requestScores = scores.get(taskRequestID);
+                if (requestScores != null) {
+                    result.add(taskRequestID, requestScores);
+                }
+            }
+            phase.end(result.size());
+            return result;
+        } finally {
+            merged.close();
+            deleteSpills(spillFiles);
+            spillFiles.clear();
+        }
+    }
+
+    /**
+     * Scores each request whose hits go by.
+     * @param hits the merged hits, in run order
+     * @return the scores by request ID
+     */
+    private Map<String, double[]> merge(Source hits) throws IOException {
+        QrelIndex qrels = loaded.getQrels();
+        DocidLookup qrelDocids = qrels.getDocids();
+        MetricSet.Engine engine = loaded.metrics.newEngine();
+        Map<String, double[]> scores = new HashMap<>();
+        int[] docids = new int[MetricSet.MAX_DEPTH];
+        String current = null;
+        int request = -1;
+        int size = 0;
+        long lookups = 0;
+        for (hits.advance(); hits.current != null; hits.advance()) {
+            Hit hit = hits.current;
+            if (!hit.requestID.equals(current)) {
+                if (request >= 0) {
+                    lookups += score(engine, qrels, current, request, docids, size, scores);
+                }
+                current = hit.requestID;
+                request = qrels.getRequest(current);
+                size = 0;
+            }
+            /* The hits come in rank order, so the first MAX_DEPTH are the ones that count.
+               Judged docs are in the qrels dictionary; any other doc is unjudged (-1) */
+            if (size < docids.length) {
+                docids[size++] = qrelDocids.lookup(hit.docid);
+            }
+        }
+        if (request >= 0) {
+            lookups += score(engine, qrels, current, request, docids, size, scores);
+        }
+        loaded.stats.addScoring(loaded.runFile, scores.size(), scoredRequestIDs.size() - scores.size(),
+                unjudgedRequestIDs.size(), lookups);
+        return scores;
+    }
+
+    private int score(MetricSet.Engine engine, QrelIndex qrels, String requestID, int request,
+                      int[] docids, int size, Map<String, double[]> scores) {
+        double[] requestScores = new double[loaded.metrics.size()];
+        int walked = engine.score(qrels, request, docids, size, requestScores);
+        scores.put(requestID, requestScores);
+        return walked;
+    }
+
+    /**
+     * Entry point for external sort mode.
+     * @param args [-memory MB] [-temp-dir dir] [-metrics list]
+     *             analytic-tasks-file run-file qrel-file output-file
+     */
+    public static void main(String[] args) {
+        CommandLine commandLine = new CommandLine(args);
+        if (commandLine.getPositionalCount() < 4) {
+            System.out.println("evaluator sort: evaluate an unsorted or larger-than-memory run file");
+            System.out.println("Usage: evaluator sort [-memory MB] [-temp-dir dir] [-metrics list]"
+                    + " analytic-tasks-file run-file qrel-file output-file");
+            System.exit(-1);
+        }
+        String runFile = commandLine.getPositional(1);
+        Evaluator evaluator = new Evaluator(commandLine.getPositional(0), runFile,
+                commandLine.getPositional(2), commandLine.getPositional(3));
+        evaluator.metrics = new MetricSet(commandLine.getOption("metrics", MetricSet.DEFAULT_METRICS));
+        evaluator.setupLogging();
+        evaluator.load();
+        long memoryBudget = commandLine.getIntOption("memory", 256) * (1L << 20);
+        String tempDir = commandLine.getOption("temp-dir", null);
+        logger.info("Sorting run file " + runFile + " in " + (memoryBudget >> 20) + "MB");
+        try (InputStream in = CompressedInput.open(runFile)) {
+            EvaluationResult result = new ExternalSortEvaluator(evaluator, memoryBudget,
+                    (tempDir == null ? null : new File(tempDir))).evaluate(in, runFile);
+            Evaluator.writeCSV(result, commandLine.getPositional(3));
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package edu.umass.ciir;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Fuses several runs into one and scores the fused run, without writing it out first
+ * (though it can be). The inputs are read side by side, each on a thread of its own that
+ * turns every request block into a RequestRun, its top MetricSet.MAX_DEPTH hits; a request
+ * is fused once every input has given its block for it or ended, adding up each run's
+ * contribution per doc in a ScoreAccumulator, and the fused ranking goes straight to the
+ * metrics. When the inputs have their requests in the same order, as runs from the same
+ * topics usually do, only a few requests per input are held at a time, however large the
+ * runs; a request an input does not have, or has out of order, is held until that input
+ * gets to it or ends. A request whose lines are not together in an input is fused with
+ * its first block only.
+ * <p>
+ * Methods: reciprocal rank fusion, where a doc at rank r in a run gets 1 / (k + r); CombSUM,
+ * the sum of the doc's scores after min-max normalizing each run's scores for the request;
+ * and CombMNZ, CombSUM times the number of runs that retrieved the doc. Docs a run did not
+ * retrieve get nothing from it. The fused ranking is ordered like any run's, by descending
+ * fused score and then descending doc ID, so writing it out and evaluating the written run
+ * gives the same scores.
+ */
+public class FusionEvaluator {
+    private static final Logger logger = Logger.getLogger("Evaluator");
+
+    enum Method {
+        RRF, COMBSUM, COMBMNZ;
+
+        static Method parse(String name) {
+            switch (name.toLowerCase()) {
+                case "rrf":
+                    return RRF;
+                case "combsum":
+                    return COMBSUM;
+                case "combmnz":
+                    return COMBMNZ;
+                default:
+                    throw new TasksRunnerException("Unknown fusion method " + name + " (use rrf, combsum or combmnz)");
+            }
+        }
+    }
+
+    /**
+     * What an input's reader hands over: a request block, the end of the input, or the
+     * reason it could not be read.
+     */
+    private static class Block {
+        final int input;
+        final RequestRun requestRun;
+        final Exception error;
+
+        Block(int input, RequestRun requestRun, Exception error) {
+            this.input = input;
+            this.requestRun = requestRun;
+            this.error = error;
+        }
+    }
+
+    private final Evaluator loaded;
+    private final List<String> runFiles;
+    private final Method method;
+    private final int rrfK;
+    private final int depth;
+    private final ScoreAccumulator accumulator = new ScoreAccumulator(4 * MetricSet.MAX_DEPTH);
+
+    /**
+     * @param loaded an Evaluator whose load() has been called
+     * @param runFiles the runs to fuse
+     * @param method how to fuse them
+     * @param rrfK the k of reciprocal rank fusion
+     * @param depth the number of fused hits to keep per request
+     */
+    FusionEvaluator(Evaluator loaded, List<String> runFiles, Method method, int rrfK, int depth) {
+        this.loaded = loaded;
+        this.runFiles = runFiles;
+        this.method = method;
+        this.rrfK = rrfK;
+        this.depth = depth;
+    }
+
+    /**
+     * Reads one input run, putting a Block on the queue for each of its requests and
+     * one more when it ends.
+     */
+    private class InputReader implements RunFileParser.Listener, Runnable {
+        private final int input;
+        private final BlockingQueue<Block> queue;
+        private RequestRun requestRun;
+
+        InputReader(int input, BlockingQueue<Block> queue) {
+            this.input = input;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            String runFile = runFiles.get(input);
+            Exception error = null;
+            if (new File(runFile).exists()) {
+                logger.info("Opening run file " + runFile);
+                try (InputStream in = CompressedInput.open(runFile)) {
+                    new RunFileParser(this).parse(in);
+                } catch (IOException | RuntimeException e) {
+                    error = e;
+                }
+            } else {
+                logger.info("Run file requested does not exist: " + runFile);
+            }
+            try {
+                queue.put(new Block(input, null, error));
+            } catch (InterruptedException e) {
+                /* Fusion has been abandoned */
+            }
+        }
+
+        @Override
+        public void startRequest(String requestID) {
+            /* Unjudged docs are interned in a dictionary that only lives as long as the request */
+            requestRun = new RequestRun(requestID, MetricSet.MAX_DEPTH,
+                    new DocidDictionary(loaded.getQrels().getDocids()));
+        }
+
+        @Override
+        public void hit(String docid, double score) {
+            requestRun.offer(docid, score);
+        }
+
+        @Override
+        public void endRequest() {
+            requestRun.finish();
+            try {
+                queue.put(new Block(input, requestRun, null));
+            } catch (InterruptedException e) {
+                /* Keep the interrupt, so run() does not wait to report the end of the input */
+                Thread.currentThread().interrupt();
+                throw new TasksRunnerException(e);
+            }
+            requestRun = null;
+        }
+    }
+
+    /**
+     * Fuses the runs and scores the fused run.
+     * @param fusedRun where to write the fused run in TREC format, or null
+     * @param tag the run tag for the written fused run
+     * @return the fused run's request-level scores, in tasks file order
+     * @throws IOException if the fused run cannot be written
+     */
+    EvaluationResult process(Writer fusedRun, String tag) throws IOException {
+        int inputs = runFiles.size();
+        logger.info("Fusing " + inputs + " runs with " + method);
+        QrelIndex qrels = loaded.getQrels();
+        MetricSet.Engine engine = loaded.metrics.newEngine();
+        Set<String> taskRequestIDs = new HashSet<>(loaded.getRequestIDs());
+        Map<String, double[]> scores = new HashMap<>();
+        /* Bounded, so a reader can only get a few requests ahead of the slowest one */
+        BlockingQueue<Block> queue = new ArrayBlockingQueue<>(4 * inputs);
+        ExecutorService pool = Executors.newFixedThreadPool(inputs);
+        /* The blocks of the requests that are waiting for some of the inputs, by input */
+        Map<String, RequestRun[]> pending = new LinkedHashMap<>();
+        Set<String> fusedRequestIDs = new HashSet<>();
+        boolean[] ended = new boolean[inputs];
+        int open = inputs;
+        try {
+            for (int input = 0; input < inputs; ++input) {
+                pool.execute(new InputReader(input, queue));
+            }
+            while (open > 0) {
+                Block block = queue.take();
+                List<String> ready = new ArrayList<>();
+                if (block.error instanceof RuntimeException) {
+                    throw (RuntimeException) block.error;
+                } else if (block.error != null) {
+                    throw new TasksRunnerException(block.error);
+                } else if (block.requestRun == null) {
+                    ended[block.input] = true;
+                    --open;
+                    for (Map.Entry<String, RequestRun[]> entry : pending.entrySet()) {
+                        if (isReady(entry.getValue(), ended)) {
+                            ready.add(entry.getKey());
+                        }
+                    }
+                } else {
+                    String requestID = block.requestRun.requestID;
+                    RequestRun[] requestRuns = pending.get(requestID);
+                    /* Keep the first block, whether or not the request has been fused yet (which
+                       depends on how far the other inputs have been read) */
+                    if (fusedRequestIDs.contains(requestID)
+                            || (requestRuns != null && requestRuns[block.input] != null)) {
+                        logger.warning("Ignoring a later block of request " + requestID + " in "
+                                + runFiles.get(block.input));
+                        continue;
+                    }
+                    if (requestRuns == null) {
+                        requestRuns = new RequestRun[inputs];
+                        pending.put(requestID, requestRuns);
+                    }
+                    requestRuns[block.input] = block.requestRun;
+                    if (isReady(requestRuns, ended)) {
+                        ready.add(requestID);
+                    }
+                }
+                for (String requestID : ready) {
+                    RequestRun fused = fuse(requestID, pending.remove(requestID));
+                    fusedRequestIDs.add(requestID);
+                    if (fusedRun != null) {
+                        write(fused, tag, fusedRun);
+                    }
+                    int request = (taskRequestIDs.contains(requestID) ? qrels.getRequest(requestID) : -1);
+                    if (request >= 0 && fused.size > 0) {
+                        double[] requestScores = new double[loaded.metrics.size()];
+                        engine.score(qrels, request, fused.docids, fused.size, requestScores);
+                        scores.put(requestID, requestScores);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new TasksRunnerException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+        logger.info("Fused " + inputs + " runs over " + fusedRequestIDs.size() + " requests");
+        EvaluationResult result = new EvaluationResult("fused:" + method.name().toLowerCase(),
+                loaded.metrics.getNames());
+        for (String requestID : loaded.getRequestIDs()) {
+            double[] requestScores = scores.get(requestID);
+            if (requestScores != null) {
+                result.add(requestID, requestScores);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return whether every input has given its block for the request or ended
+     */
+    private static boolean isReady(RequestRun[] requestRuns, boolean[] ended) {
+        for (int input = 0; input < ended.length; ++input) {
+            if (requestRuns[input] == null && !ended[input]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fuses the runs' rankings for one request.
+     * @param requestRuns each input's ranking for the request, or null where it has none
+     * @return the fused ranking, in rank order
+     */
+    RequestRun fuse(String requestID, RequestRun[] requestRuns) {
+        /* Judged docs keep their qrels doc ints in every run; unjudged docs are given
+           request-local ints by doc ID, so the same doc gets the same int from every run */
+        DocidLookup qrelDocids = loaded.getQrels().getDocids();
+        DocidDictionary docids = new DocidDictionary(qrelDocids);
+        accumulator.clear();
+        for (RequestRun requestRun : requestRuns) {
+            if (requestRun == null || requestRun.size == 0) {
+                continue;
+            }
+            DocidDictionary runDocids = requestRun.getDictionary();
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < requestRun.size; ++i) {
+                min = Math.min(min, requestRun.scores[i]);
+                max = Math.max(max, requestRun.scores[i]);
+            }
+            for (int i = 0; i < requestRun.size; ++i) {
+                int runDocid = requestRun.docids[i];
+                int docid = (runDocid < qrelDocids.size() ? runDocid : docids.intern(runDocids.get(runDocid)));
+                double contribution;
+                if (method == Method.RRF) {
+                    contribution = 1.0 / (rrfK + i + 1);
+                } else {
+                    /* A run that gave every hit the same score gives each of them 1 */
+                    contribution = (max > min ? (requestRun.scores[i] - min) / (max - min) : 1.0);
+                }
+                accumulator.add(docid, contribution);
+            }
+        }
+        RequestRun fused = new RequestRun(requestID, depth, docids);
+        for (int i = 0; i < accumulator.size(); ++i) {
+            double score = accumulator.getSum(i);
+            if (method == Method.COMBMNZ) {
+                score *= accumulator.getCount(i);
+            }
+            fused.offer(docids.get(accumulator.getDocid(i)), score);
+        }
+        fused.finish();
+        return fused;
+    }
+
+    private static void write(RequestRun fused, String tag, Writer out) throws IOException {
+        DocidDictionary docids = fused.getDictionary();
+        for (int i = 0; i < fused.size; ++i) {
+            out.write(fused.requestID);
+            out.write(" Q0 ");
+            out.write(docids.get(fused.docids[i]));
+            out.write(" ");
+            out.write(Integer.toString(i + 1));
+            out.write(" ");
+            /* Full precision, so the written run ranks its hits exactly as they were fused */
+            out.write(Double.toString(fused.scores[i]));
+            out.write(" ");
+            out.write(tag);
+            out.write("\n");
+        }
+    }
+
+    /**
+     * Entry point for fusion mode.
+     * @param args [-method rrf|combsum|combmnz] [-rrf-k n] [-depth n] [-output-run file]
+     *             [-tag name] [-metrics list] analytic-tasks-file qrel-file output-file run...
+     */
+    public static void main(String[] args) {
+        CommandLine commandLine = new CommandLine(args);
+        if (commandLine.getPositionalCount() < 4) {
+            System.out.println("evaluator fuse: fuse runs and score the fused run");
+            System.out.println("Usage: evaluator fuse [-method rrf|combsum|combmnz] [-rrf-k n] [-depth n]"
+                    + " [-output-run file] [-tag name] [-metrics list] analytic-tasks-file qrel-file output-file run...");
+            System.exit(-1);
+        }
+        List<String> files = commandLine.getPositional();
+        Method method = Method.parse(commandLine.getOption("method", "rrf"));
+        int rrfK = commandLine.getIntOption("rrf-k", 60);
+        int depth = commandLine.getIntOption("depth", MetricSet.MAX_DEPTH);
+        String outputRun = commandLine.getOption("output-run", null);
+        String tag = commandLine.getOption("tag", "fused-" + method.name().toLowerCase());
+        Evaluator evaluator = new Evaluator(files.get(0), null, files.get(1), files.get(2));
+        evaluator.metrics = new MetricSet(commandLine.getOption("metrics", MetricSet.DEFAULT_METRICS));
+        evaluator.setupLogging();
+        evaluator.load();
+        FusionEvaluator fusion = new FusionEvaluator(evaluator, files.subList(3, files.size()), method, rrfK,
+                depth);
+        try (Writer fusedRun = (outputRun == null ? null : new BufferedWriter(new FileWriter(outputRun)))) {
+            Evaluator.writeCSV(fusion.process(fusedRun, tag), files.get(2));
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package edu.umass.ciir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * A QrelIndex parsed from a text qrels file into heap structures: doc IDs and request IDs
+ * are interned in DocidDictionary tables, judgments are looked up in a JudgmentTable, and
+ * each request's judgments are also kept together in a RequestJudgments.
+ */
+public class HeapQrelIndex extends QrelIndex {
+    DocidDictionary requests = new DocidDictionary();
+    DocidDictionary docids = new DocidDictionary();
+    JudgmentTable table = new JudgmentTable();
+    RequestJudgments[] requestJudgments = new RequestJudgments[0];
+
+    HeapQrelIndex() {
+    }
+
+    /**
+     * Reads a qrels file ("requestID docid judgment" per line), which may be compressed.
+     * If the same request/docid is judged more than once, the last judgment wins.
+     * @param qrelFile the qrels file name
+     * @return the index
+     */
+    static HeapQrelIndex read(String qrelFile) {
+        HeapQrelIndex qrels = new HeapQrelIndex();
+        int[][] judgedDocids = new int[16][];
+        int[] judgedCounts = new int[16];
+        try (BufferedReader qrelReader = new BufferedReader(new InputStreamReader(
+                CompressedInput.open(qrelFile)))) {
+            String line = qrelReader.readLine();
+            while (line != null) {
+                String[] tokens = line.split(" ");
+                String requestID = tokens[0];
+                String docid = tokens[1];
+                String judgment = tokens[2];
+                RelevanceJudgment j = new RelevanceJudgment(requestID, docid, "", "", judgment);
+                int request = qrels.requests.intern(requestID);
+                int doc = qrels.docids.intern(docid);
+                if (request == judgedDocids.length) {
+                    judgedDocids = Arrays.copyOf(judgedDocids, request * 2);
+                    judgedCounts = Arrays.copyOf(judgedCounts, request * 2);
+                }
+                if (judgedDocids[request] == null) {
+                    judgedDocids[request] = new int[16];
+                }
+                if (qrels.table.get(request, doc) < 0) {
+                    if (judgedCounts[request] == judgedDocids[request].length) {
+                        judgedDocids[request] = Arrays.copyOf(judgedDocids[request], judgedCounts[request] * 2);
+                    }
+                    judgedDocids[request][judgedCounts[request]++] = doc;
+                }
+                qrels.table.put(request, doc, j.getRelevanceJudgmentValue());
+                line = qrelReader.readLine();
+            }
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+        qrels.requestJudgments = new RequestJudgments[qrels.requests.size()];
+        for (int r = 0; r < qrels.requestJudgments.length; ++r) {
+            qrels.requestJudgments[r] = new RequestJudgments(qrels.requests.get(r), r,
+                    Arrays.copyOf(judgedDocids[r], judgedCounts[r]), qrels.table);
+        }
+        qrels.prepareIdeal();
+        return qrels;
+    }
+
+    @Override
+    public DocidLookup getDocids() {
+        return docids;
+    }
+
+    @Override
+    public int getRequest(String requestID) {
+        return requests.lookup(requestID);
+    }
+
+    @Override
+    public int getRequestCount() {
+        return requestJudgments.length;
+    }
+
+    @Override
+    public String getRequestID(int request) {
+        return requests.get(request);
+    }
+
+    public RequestJudgments getRequestJudgments(int request) {
+        return requestJudgments[request];
+    }
+
+    @Override
+    public int getJudgmentCount(int request) {
+        return requestJudgments[request].size();
+    }
+
+    @Override
+    public int getPositiveCount(int request) {
+        return requestJudgments[request].getPositiveCount();
+    }
+
+    @Override
+    public int getJudgedDocid(int request, int i) {
+        return requestJudgments[request].docids[i];
+    }
+
+    @Override
+    public int getJudgedValue(int request, int i) {
+        return requestJudgments[request].values[i];
+    }
+
+    @Override
+    public int getRelevanceJudgmentValue(int request, int docid) {
+        return table.get(request, docid);
+    }
+}
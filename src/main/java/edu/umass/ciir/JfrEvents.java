@@ -0,0 +1,105 @@
+package edu.umass.ciir;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The evaluator's JFR events. Only EvaluationStats uses this class, and only once it has
+ * found jdk.jfr, so the evaluator still runs on JVMs without it. Record them with e.g.
+ * java -XX:StartFlightRecording=filename=evaluator.jfr -jar evaluator-1.0.0.jar ...
+ */
+class JfrEvents {
+
+    @Name("edu.umass.ciir.Phase")
+    @Label("Evaluation Phase")
+    @Category("Evaluator")
+    @Description("Reading the tasks, qrels or run file, or scoring a run")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("File")
+        String file;
+
+        @Label("CPU Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long cpuTime;
+
+        @Label("Heap Used Before")
+        @DataAmount
+        long heapBefore;
+
+        @Label("Heap Used After")
+        @DataAmount
+        long heapAfter;
+
+        @Label("Count")
+        @Description("Requests, judgments or lines read, or requests scored")
+        long count;
+    }
+
+    @Name("edu.umass.ciir.Counters")
+    @Label("Evaluation Counters")
+    @Category("Evaluator")
+    @Description("The work done by one scoring pass over a run")
+    static class CountersEvent extends Event {
+        @Label("Run File")
+        String runFile;
+
+        @Label("Requests Scored")
+        long requestsScored;
+
+        @Label("Requests Skipped, No Run")
+        long requestsSkippedNoRun;
+
+        @Label("Requests Skipped, No Judgments")
+        long requestsSkippedNoJudgments;
+
+        @Label("Judgment Lookups")
+        long judgmentLookups;
+    }
+
+    /**
+     * Starts a phase event, or returns null if no recording wants it.
+     */
+    static Object beginPhase() {
+        PhaseEvent event = new PhaseEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitPhase(Object begun, EvaluationStats.Phase phase) {
+        PhaseEvent event = (PhaseEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase.name;
+            event.file = phase.file;
+            event.cpuTime = phase.cpuNanos;
+            event.heapBefore = phase.heapBefore;
+            event.heapAfter = phase.heapAfter;
+            event.count = phase.count;
+            event.commit();
+        }
+    }
+
+    static void commitCounters(String runFile, long scored, long skippedNoRun, long skippedNoJudgments,
+                               long lookups) {
+        CountersEvent event = new CountersEvent();
+        if (event.shouldCommit()) {
+            event.runFile = runFile;
+            event.requestsScored = scored;
+            event.requestsSkippedNoRun = skippedNoRun;
+            event.requestsSkippedNoJudgments = skippedNoJudgments;
+            event.judgmentLookups = lookups;
+            event.commit();
+        }
+    }
+}
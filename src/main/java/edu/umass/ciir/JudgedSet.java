@@ -0,0 +1,71 @@
+package edu.umass.ciir;
+
+/**
+ * A request's judged docid ints as a bitset. Most of a deep ranking is usually unjudged,
+ * and mayContain() rules nearly all of those out with one bit test instead of a search of
+ * the judgments.
+ * <p>
+ * When the docids are close together, as a text qrels file grouped by request interns
+ * them, the set has a bit for each docid int from the lowest to the highest and is exact.
+ * Otherwise, as in a compiled qrels file, sorted by doc ID, where they are spread over the
+ * whole dictionary, it has BITS_PER_JUDGMENT bits per judgment (rounded up to a power of
+ * two), indexed by a hash of the docid int, and a few unjudged docs have their bit set
+ * anyway. Each set is whichever of the two is smaller.
+ */
+final class JudgedSet {
+    static final int BITS_PER_JUDGMENT = 16;
+
+    private final long[] bits;
+    /* The docid int of the first bit, for a set indexed by docid int */
+    private final int base;
+    /* The shift that takes a docid hash to a bit index, or 0 for a set indexed by docid int */
+    private final int shift;
+
+    /**
+     * @param docids the judged docid ints, in any order
+     * @param count the number of them
+     */
+    JudgedSet(int[] docids, int count) {
+        /* At least one word, so an empty set needs no special case */
+        int hashedBits = Math.max(64, Integer.highestOneBit(Math.max(1, count * BITS_PER_JUDGMENT - 1)) << 1);
+        int min = Integer.MAX_VALUE;
+        int max = -1;
+        for (int i = 0; i < count; ++i) {
+            min = Math.min(min, docids[i]);
+            max = Math.max(max, docids[i]);
+        }
+        long words = ((long) max - (min & ~63)) / 64 + 1;
+        if (count > 0 && words <= hashedBits >>> 6) {
+            base = min & ~63;
+            shift = 0;
+            bits = new long[(int) words];
+        } else {
+            base = 0;
+            shift = 32 - Integer.numberOfTrailingZeros(hashedBits);
+            bits = new long[hashedBits >>> 6];
+        }
+        for (int i = 0; i < count; ++i) {
+            int bit = bit(docids[i]);
+            bits[bit >>> 6] |= (1L << bit);
+        }
+    }
+
+    /**
+     * Returns the docid's bit: its offset from the base, or for a hashed set the top bits
+     * of the docid times 2^32 / phi (Fibonacci hashing), which spreads runs of consecutive
+     * docids evenly over the set.
+     */
+    private int bit(int docid) {
+        return (shift == 0 ? docid - base : (docid * 0x9E3779B9) >>> shift);
+    }
+
+    /**
+     * Returns false if the docid is certainly not in the set.
+     * @param docid the docid int, which may be past the qrels' doc IDs, or -1
+     */
+    boolean mayContain(int docid) {
+        int bit = bit(docid);
+        /* Unsigned, so a docid below the base is out of range too */
+        return (bit >>> 6) < bits.length && (bits[bit >>> 6] & (1L << bit)) != 0;
+    }
+}
@@ -0,0 +1,104 @@
+package edu.umass.ciir;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressed hash table from (request int, docid int) to a raw relevance value.
+ * The two ints are packed into one long key, so a lookup does not allocate.
+ */
+public class JudgmentTable {
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private byte[] values;
+    private int size;
+
+    JudgmentTable() {
+        this(1024);
+    }
+
+    JudgmentTable(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new byte[capacity];
+    }
+
+    static long key(int request, int docid) {
+        return ((long) request << 32) | (docid & 0xffffffffL);
+    }
+
+    private static int hash(long key) {
+        key ^= (key >>> 33);
+        key *= 0xff51afd7ed558ccdL;
+        key ^= (key >>> 33);
+        return (int) key;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the relevance value for the request and docid, or -1 if it is unjudged.
+     * @param request the request int
+     * @param docid the docid int
+     * @return the raw relevance value, or -1
+     */
+    public int get(int request, int docid) {
+        long key = key(request, docid);
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the relevance value for the request and docid, replacing any earlier one.
+     * @param request the request int
+     * @param docid the docid int
+     * @param value the raw relevance value
+     */
+    public void put(int request, int docid, int value) {
+        if ((size + 1) * 2 > keys.length) {
+            rehash();
+        }
+        long key = key(request, docid);
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                values[slot] = (byte) value;
+                return;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = (byte) value;
+        ++size;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        byte[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        values = new byte[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package edu.umass.ciir;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * A QrelIndex over a compiled qrels file, which is memory-mapped rather than read into the
+ * heap. Opening one costs little more than reading the header, and concurrent evaluator
+ * processes using the same file share its pages in the OS page cache.
+ * <p>
+ * The file (big-endian, written by compile()) is:
+ * <pre>
+ *   int magic, int version, int docidCount, int requestCount, int judgmentCount
+ *   int[docidCount + 1]    offsets of the doc ID strings in the doc ID bytes
+ *   int[requestCount + 1]  offsets of the request ID strings in the request ID bytes
+ *   int[requestCount + 1]  offsets of each request's judgments in the judgment arrays
+ *   int[requestCount]      each request's positive judgment count
+ *   int[judgmentCount]     judged docid ints, sorted within each request
+ *   byte[judgmentCount]    raw relevance values
+ *   byte[]                 doc ID bytes (UTF-8), sorted
+ *   byte[]                 request ID bytes (UTF-8), sorted
+ * </pre>
+ * Doc IDs and request IDs are stored sorted, so a docid int is the doc ID's position in
+ * sort order and string lookups are binary searches over the mapped bytes.
+ * The whole file must be under 2GB.
+ */
+public class MappedQrelIndex extends QrelIndex {
+    private static final Logger logger = Logger.getLogger("Evaluator");
+
+    static final int MAGIC = 0x4252514c;  // "BRQL"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 5 * 4;
+
+    private final int docidCount;
+    private final int requestCount;
+    private final IntBuffer docidOffsets;
+    private final IntBuffer requestOffsets;
+    private final IntBuffer judgmentOffsets;
+    private final IntBuffer positiveCounts;
+    private final IntBuffer judgedDocids;
+    private final ByteBuffer judgedValues;
+    private final ByteBuffer docidBytes;
+    private final ByteBuffer requestBytes;
+    private final DocidLookup docids;
+
+    private MappedQrelIndex(MappedByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new TasksRunnerException("Not a compiled qrels file, or the wrong version");
+        }
+        docidCount = buffer.getInt(8);
+        requestCount = buffer.getInt(12);
+        int judgmentCount = buffer.getInt(16);
+        int position = HEADER_SIZE;
+        docidOffsets = intSlice(buffer, position, docidCount + 1);
+        position += (docidCount + 1) * 4;
+        requestOffsets = intSlice(buffer, position, requestCount + 1);
+        position += (requestCount + 1) * 4;
+        judgmentOffsets = intSlice(buffer, position, requestCount + 1);
+        position += (requestCount + 1) * 4;
+        positiveCounts = intSlice(buffer, position, requestCount);
+        position += requestCount * 4;
+        judgedDocids = intSlice(buffer, position, judgmentCount);
+        position += judgmentCount * 4;
+        judgedValues = byteSlice(buffer, position, judgmentCount);
+        position += judgmentCount;
+        docidBytes = byteSlice(buffer, position, docidOffsets.get(docidCount));
+        position += docidOffsets.get(docidCount);
+        requestBytes = byteSlice(buffer, position, requestOffsets.get(requestCount));
+        docids = new MappedDocidDictionary();
+        prepareIdeal();
+    }
+
+    private static IntBuffer intSlice(ByteBuffer buffer, int position, int count) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(position);
+        b.limit(position + count * 4);
+        return b.slice().asIntBuffer();
+    }
+
+    private static ByteBuffer byteSlice(ByteBuffer buffer, int position, int count) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(position);
+        b.limit(position + count);
+        return b.slice();
+    }
+
+    /**
+     * Returns true if the file starts with the compiled qrels magic number.
+     * @param qrelFile the qrels file name
+     * @return true if it is a compiled qrels file
+     */
+    static boolean isCompiled(String qrelFile) {
+        File f = new File(qrelFile);
+        if (!f.isFile() || f.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+    }
+
+    /**
+     * Memory-maps a compiled qrels file.
+     * @param qrelFile the compiled qrels file name
+     * @return the index
+     */
+    static MappedQrelIndex open(String qrelFile) {
+        logger.info("Mapping compiled qrels file " + qrelFile);
+        try (RandomAccessFile file = new RandomAccessFile(qrelFile, "r");
+             FileChannel channel = file.getChannel()) {
+            return new MappedQrelIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+    }
+
+    /**
+     * Writes a qrels index in the compiled format. Doc IDs and request IDs are renumbered
+     * in sorted order on the way out.
+     * @param qrels the index to write
+     * @param outputFile the compiled qrels file name
+     */
+    static void compile(QrelIndex qrels, String outputFile) {
+        DocidLookup sourceDocids = qrels.getDocids();
+        int docidCount = sourceDocids.size();
+        int requestCount = qrels.getRequestCount();
+        byte[][] docidStrings = new byte[docidCount][];
+        Integer[] docidOrder = new Integer[docidCount];
+        for (int d = 0; d < docidCount; ++d) {
+            docidStrings[d] = sourceDocids.get(d).getBytes(StandardCharsets.UTF_8);
+            docidOrder[d] = d;
+        }
+        Arrays.sort(docidOrder, (a, b) -> compareBytes(docidStrings[a], docidStrings[b]));
+        int[] newDocid = new int[docidCount];
+        for (int d = 0; d < docidCount; ++d) {
+            newDocid[docidOrder[d]] = d;
+        }
+        byte[][] requestStrings = new byte[requestCount][];
+        Integer[] requestOrder = new Integer[requestCount];
+        int judgmentCount = 0;
+        for (int r = 0; r < requestCount; ++r) {
+            requestStrings[r] = qrels.getRequestID(r).getBytes(StandardCharsets.UTF_8);
+            requestOrder[r] = r;
+            judgmentCount += qrels.getJudgmentCount(r);
+        }
+        Arrays.sort(requestOrder, (a, b) -> compareBytes(requestStrings[a], requestStrings[b]));
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(outputFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(docidCount);
+            out.writeInt(requestCount);
+            out.writeInt(judgmentCount);
+            int offset = 0;
+            for (int d = 0; d < docidCount; ++d) {
+                out.writeInt(offset);
+                offset += docidStrings[docidOrder[d]].length;
+            }
+            out.writeInt(offset);
+            offset = 0;
+            for (int r = 0; r < requestCount; ++r) {
+                out.writeInt(offset);
+                offset += requestStrings[requestOrder[r]].length;
+            }
+            out.writeInt(offset);
+            offset = 0;
+            for (int r = 0; r < requestCount; ++r) {
+                out.writeInt(offset);
+                offset += qrels.getJudgmentCount(requestOrder[r]);
+            }
+            out.writeInt(offset);
+            for (int r = 0; r < requestCount; ++r) {
+                out.writeInt(qrels.getPositiveCount(requestOrder[r]));
+            }
+            /* Each request's judgments, sorted by their new docid ints */
+            long[][] sortedJudgments = new long[requestCount][];
+            for (int r = 0; r < requestCount; ++r) {
+                int request = requestOrder[r];
+                long[] judgments = new long[qrels.getJudgmentCount(request)];
+                for (int i = 0; i < judgments.length; ++i) {
+                    judgments[i] = ((long) newDocid[qrels.getJudgedDocid(request, i)] << 8)
+                            | qrels.getJudgedValue(request, i);
+                }
+                Arrays.sort(judgments);
+                sortedJudgments[r] = judgments;
+                for (long j : judgments) {
+                    out.writeInt((int) (j >>> 8));
+                }
+            }
+            for (long[] judgments : sortedJudgments) {
+                for (long j : judgments) {
+                    out.writeByte((int) (j & 0xff));
+                }
+            }
+            for (int d = 0; d < docidCount; ++d) {
+                out.write(docidStrings[docidOrder[d]]);
+            }
+            for (int r = 0; r < requestCount; ++r) {
+                out.write(requestStrings[requestOrder[r]]);
+            }
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; ++i) {
+            int c = (a[i] & 0xff) - (b[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Compares a key with the i'th string of a sorted string table.
+     */
+    private static int compareWith(byte[] key, IntBuffer offsets, ByteBuffer bytes, int i) {
+        int from = offsets.get(i);
+        int to = offsets.get(i + 1);
+        int n = Math.min(key.length, to - from);
+        for (int k = 0; k < n; ++k) {
+            int c = (key[k] & 0xff) - (bytes.get(from + k) & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return key.length - (to - from);
+    }
+
+    /**
+     * Binary searches a sorted string table, returning the string's index or -1.
+     */
+    private static int find(String s, IntBuffer offsets, ByteBuffer bytes, int count) {
+        byte[] key = s.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compareWith(key, offsets, bytes, mid);
+            if (c == 0) {
+                return mid;
+            } else if (c < 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static String string(IntBuffer offsets, ByteBuffer bytes, int i) {
+        int from = offsets.get(i);
+        byte[] b = new byte[offsets.get(i + 1) - from];
+        for (int k = 0; k < b.length; ++k) {
+            b[k] = bytes.get(from + k);
+        }
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The doc ID dictionary stored in the compiled file. It is read-only: runs extend it.
+     */
+    private class MappedDocidDictionary implements DocidLookup {
+        @Override
+        public int size() {
+            return docidCount;
+        }
+
+        @Override
+        public int lookup(String s) {
+            return find(s, docidOffsets, docidBytes, docidCount);
+        }
+
+        @Override
+        public String get(int id) {
+            return string(docidOffsets, docidBytes, id);
+        }
+    }
+
+    @Override
+    public DocidLookup getDocids() {
+        return docids;
+    }
+
+    @Override
+    public int getRequest(String requestID) {
+        return find(requestID, requestOffsets, requestBytes, requestCount);
+    }
+
+    @Override
+    public int getRequestCount() {
+        return requestCount;
+    }
+
+    @Override
+    public String getRequestID(int request) {
+        return string(requestOffsets, requestBytes, request);
+    }
+
+    @Override
+    public int getJudgmentCount(int request) {
+        return judgmentOffsets.get(request + 1) - judgmentOffsets.get(request);
+    }
+
+    @Override
+    public int getPositiveCount(int request) {
+        return positiveCounts.get(request);
+    }
+
+    @Override
+    public int getJudgedDocid(int request, int i) {
+        return judgedDocids.get(judgmentOffsets.get(request) + i);
+    }
+
+    @Override
+    public int getJudgedValue(int request, int i) {
+        return judgedValues.get(judgmentOffsets.get(request) + i);
+    }
+
+    @Override
+    public int getRelevanceJudgmentValue(int request, int docid) {
+        int low = judgmentOffsets.get(request);
+        int high = judgmentOffsets.get(request + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int d = judgedDocids.get(mid);
+            if (d == docid) {
+                return judgedValues.get(mid);
+            } else if (d < docid) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Entry point for the compile-qrels subcommand.
+     * @param args qrel-file compiled-qrel-file
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("evaluator compile-qrels: write a qrels file in the compiled, memory-mappable format");
+            System.out.println("Usage: evaluator compile-qrels qrel-file compiled-qrel-file");
+            System.exit(-1);
+        }
+        compile(HeapQrelIndex.read(args[0]), args[1]);
+    }
+}
@@ -0,0 +1,413 @@
+package edu.umass.ciir;
+
+/**
+ * An accumulator for one evaluation metric over one request's ranking. The metric engine
+ * walks a ranking once and feeds every rank to each metric in the set:
+ * start() once per request, add() for each rank in order, then finish() for the score.
+ * <p>
+ * Relevance values passed to add() are the raw judgment values, or -1 for an unjudged
+ * document; any positive value counts as relevant for the binary metrics, and nDCG uses
+ * the MITRE gain mapping. Most metrics treat unjudged documents as not relevant; judged@k,
+ * holes@k and the condensed-list nDCG' are there to show how much that matters.
+ */
+public abstract class Metric {
+    /** Passed as a cutoff to mean R, the number of relevant documents for the request. */
+    static final int CUTOFF_R = -1;
+
+    final String name;
+
+    Metric(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Starts a new request.
+     * @param qrels the relevance judgments
+     * @param request the request int
+     * @return the ranking depth this metric needs to see
+     */
+    abstract int start(QrelIndex qrels, int request);
+
+    /**
+     * Adds the document at the next rank.
+     * @param rank the 1-based rank
+     * @param value the raw relevance value, or -1 if unjudged
+     */
+    abstract void add(int rank, int value);
+
+    /**
+     * Returns the score for the current request.
+     */
+    abstract double finish();
+
+    /**
+     * Creates a metric from its name, e.g. nDCG@R, nDCG@10, AP, P@10, R-prec, recall@100, bpref,
+     * judged@10, holes@10, nDCG'@R.
+     * Names are not case-sensitive.
+     * @param spec the metric name
+     * @return a new metric accumulator
+     */
+    static Metric parse(String spec) {
+        String s = spec.trim().toLowerCase();
+        int at = s.indexOf('@');
+        String base = (at < 0 ? s : s.substring(0, at));
+        String cutoff = (at < 0 ? null : s.substring(at + 1));
+        switch (base) {
+            case "ndcg":
+                if (cutoff == null || cutoff.equals("r")) {
+                    return new NDCG("nDCG@R", CUTOFF_R);
+                }
+                return new NDCG("nDCG@" + cutoff, parseCutoff(spec, cutoff));
+            case "ndcg'":
+                if (cutoff == null || cutoff.equals("r")) {
+                    return new CondensedNDCG("nDCG'@R", CUTOFF_R);
+                }
+                return new CondensedNDCG("nDCG'@" + cutoff, parseCutoff(spec, cutoff));
+            case "ap":
+            case "map":
+                return new AveragePrecision();
+            case "p":
+                return new Precision("P@" + cutoff, parseCutoff(spec, cutoff));
+            case "rprec":
+            case "r-prec":
+                return new Precision("R-prec", CUTOFF_R);
+            case "recall":
+                return new Recall("recall@" + cutoff, parseCutoff(spec, cutoff));
+            case "bpref":
+                return new Bpref();
+            case "judged":
+                return new Judged("judged@" + cutoff, parseCutoff(spec, cutoff));
+            case "holes":
+                return new Holes("holes@" + cutoff, parseCutoff(spec, cutoff));
+            default:
+                throw new TasksRunnerException("Unknown metric: " + spec);
+        }
+    }
+
+    private static int parseCutoff(String spec, String cutoff) {
+        try {
+            int k = Integer.parseInt(cutoff);
+            if (k > 0) {
+                return k;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new TasksRunnerException("Metric needs a positive cutoff: " + spec);
+    }
+
+    /**
+     * Normalized discounted cumulative gain at a fixed cutoff, or at R.
+     */
+    static class NDCG extends Metric {
+        private final int cutoff;
+        private int depth;
+        private double iDCG;
+        private double DCG;
+
+        NDCG(String name, int cutoff) {
+            super(name);
+            this.cutoff = cutoff;
+        }
+
+        @Override
+        int start(QrelIndex qrels, int request) {
+            DCG = 0.0;
+            if (cutoff == CUTOFF_R) {
+                depth = qrels.getPositiveCount(request);
+                iDCG = qrels.getIdealDCG(request);
+            } else {
+                depth = cutoff;
+                int[] idealGains = qrels.getIdealGains(request);
+                iDCG = 0.0;
+                for (int i = 0; i < idealGains.length && i < cutoff; ++i) {
+                    iDCG += (idealGains[i] / Discounts.get(i + 1));
+                }
+            }
+            return depth;
+        }
+
+        @Override
+        void add(int rank, int value) {
+            if (rank <= depth && value > 0) {
+                DCG += (QrelIndex.mapValue(value) / Discounts.get(rank));
+            }
+        }
+
+        @Override
+        double finish() {
+            return DCG / iDCG;
+        }
+    }
+
+    /**
+     * Average precision: the mean of the precision at each relevant document's rank,
+     * over all R relevant documents.
+     */
+    static class AveragePrecision extends Metric {
+        private int relevant;
+        private int relevantSoFar;
+        private double sum;
+
+        AveragePrecision() {
+            super("AP");
+        }
+
+        @Override
+        int start(QrelIndex qrels, int request) {
+            relevant = qrels.getPositiveCount(request);
+            relevantSoFar = 0;
+            sum = 0.0;
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        void add(int rank, int value) {
+            if (value > 0) {
+                ++relevantSoFar;
+                sum += (double) relevantSoFar / rank;
+            }
+        }
+
+        @Override
+        double finish() {
+            return (relevant == 0 ? 0.0 : sum / relevant);
+        }
+    }
+
+    /**
+     * Precision at a fixed cutoff (P@k, divided by k), or at R (R-precision).
+     */
+    static class Precision extends Metric {
+        private final int cutoff;
+        private int depth;
+        private int relevantSoFar;
+
+        Precision(String name, int cutoff) {
+            super(name);
+            this.cutoff = cutoff;
+        }
+
+        @Override
+        int start(QrelIndex qrels, int request) {
+            depth = (cutoff == CUTOFF_R ? qrels.getPositiveCount(request) : cutoff);
+            relevantSoFar = 0;
+            return depth;
+        }
+
+        @Override
+        void add(int rank, int value) {
+            if (rank <= depth && value > 0) {
+                ++relevantSoFar;
+            }
+        }
+
+        @Override
+        double finish() {
+            return (depth == 0 ? 0.0 : (double) relevantSoFar / depth);
+        }
+    }
+
+    /**
+     * The fraction of the R relevant documents found in the top k.
+     */
+    static class Recall extends Metric {
+        private final int cutoff;
+        private int relevant;
+        private int relevantSoFar;
+
+        Recall(String name, int cutoff) {
+            super(name);
+            this.cutoff = cutoff;
+        }
+
+        @Override
+        int start(QrelIndex qrels, int request) {
+            relevant = qrels.getPositiveCount(request);
+            relevantSoFar = 0;
+            return cutoff;
+        }
+
+        @Override
+        void add(int rank, int value) {
+            if (rank <= cutoff && value > 0) {
+                ++relevantSoFar;
+            }
+        }
+
+        @Override
+        double finish() {
+            return (relevant == 0 ? 0.0 : (double) relevantSoFar / relevant);
+        }
+    }
+
+    /**
+     * bpref, computed as trec_eval does: for each relevant document retrieved, one minus the
+     * fraction of judged non-relevant documents ranked above it (counting at most R of them,
+     * out of min(R, N)), averaged over R. Unjudged documents are ignored.
+     */
+    static class Bpref extends Metric {
+        private int relevant;
+        private int nonRelevant;
+        private int nonRelevantSoFar;
+        private double sum;
+
+        Bpref() {
+            super("bpref");
+        }
+
+        @Override
+        int start(QrelIndex qrels, int request) {
+            relevant = qrels.getPositiveCount(request);
+            nonRelevant = qrels.getJudgmentCount(request) - relevant;
+            nonRelevantSoFar = 0;
+            sum = 0.0;
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        void add(int rank, int value) {
+            if (value == 0) {
+                ++nonRelevantSoFar;
+            } else if (value > 0) {
+                if (nonRelevantSoFar > 0) {
+                    sum += 1.0 - (double) Math.min(nonRelevantSoFar, relevant)
+                            / Math.min(relevant, nonRelevant);
+                } else {
+                    sum += 1.0;
+                }
+            }
+        }
+
+        @Override
+        double finish() {
+            return (relevant == 0 ? 0.0 : sum / relevant);
+        }
+    }
+
+    /**
+     * nDCG over the condensed list: the ranking with its unjudged documents removed, so a
+     * judged document moves up past the unjudged ones above it (Sakai's nDCG'). The ideal
+     * DCG is nDCG's. It may have to look through the whole ranking to find its cutoff's
+     * worth of judged documents.
+     */
+    static class CondensedNDCG extends Metric {
+        private final int cutoff;
+        private int depth;
+        private int judgedSoFar;
+        private double iDCG;
+        private double DCG;
+
+        CondensedNDCG(String name, int cutoff) {
+            super(name);
+            this.cutoff = cutoff;
+        }
+
+        @Override
+        int start(QrelIndex qrels, int request) {
+            DCG = 0.0;
+            judgedSoFar = 0;
+            if (cutoff == CUTOFF_R) {
+                depth = qrels.getPositiveCount(request);
+                iDCG = qrels.getIdealDCG(request);
+            } else {
+                depth = cutoff;
+                int[] idealGains = qrels.getIdealGains(request);
+                iDCG = 0.0;
+                for (int i = 0; i < idealGains.length && i < cutoff; ++i) {
+                    iDCG += (idealGains[i] / Discounts.get(i + 1));
+                }
+            }
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        void add(int rank, int value) {
+            if (value < 0 || judgedSoFar >= depth) {
+                return;
+            }
+            ++judgedSoFar;
+            if (value > 0) {
+                DCG += (QrelIndex.mapValue(value) / Discounts.get(judgedSoFar));
+            }
+        }
+
+        @Override
+        double finish() {
+            return DCG / iDCG;
+        }
+    }
+
+    /**
+     * The fraction of the top k ranks that hold a judged document, out of k.
+     */
+    static class Judged extends Metric {
+        private final int cutoff;
+        private int judgedSoFar;
+
+        Judged(String name, int cutoff) {
+            super(name);
+            this.cutoff = cutoff;
+        }
+
+        @Override
+        int start(QrelIndex qrels, int request) {
+            judgedSoFar = 0;
+            return cutoff;
+        }
+
+        @Override
+        void add(int rank, int value) {
+            if (rank <= cutoff && value >= 0) {
+                ++judgedSoFar;
+            }
+        }
+
+        @Override
+        double finish() {
+            return (double) judgedSoFar / cutoff;
+        }
+    }
+
+    /**
+     * The hole rate at k: the fraction of the documents retrieved in the top k that are
+     * unjudged. Unlike 1 - judged@k, a ranking shorter than k is not charged for the ranks
+     * it does not fill.
+     */
+    static class Holes extends Metric {
+        private final int cutoff;
+        private int retrieved;
+        private int holes;
+
+        Holes(String name, int cutoff) {
+            super(name);
+            this.cutoff = cutoff;
+        }
+
+        @Override
+        int start(QrelIndex qrels, int request) {
+            retrieved = 0;
+            holes = 0;
+            return cutoff;
+        }
+
+        @Override
+        void add(int rank, int value) {
+            if (rank <= cutoff) {
+                ++retrieved;
+                if (value < 0) {
+                    ++holes;
+                }
+            }
+        }
+
+        @Override
+        double finish() {
+            return (retrieved == 0 ? 0.0 : (double) holes / retrieved);
+        }
+    }
+}
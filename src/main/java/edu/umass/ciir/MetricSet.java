@@ -0,0 +1,129 @@
+package edu.umass.ciir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The set of metrics to compute, as chosen on the command line (e.g. "nDCG@R,AP,P@10"),
+ * and the engine that computes them all in one walk over a ranking.
+ * <p>
+ * A MetricSet is immutable and can be shared; each evaluating thread gets its own
+ * accumulators from newEngine().
+ */
+public class MetricSet {
+    static final String DEFAULT_METRICS = "nDCG@R";
+    /** Only the first this many hits of a ranking are evaluated. */
+    static final int MAX_DEPTH = 1000;
+
+    private final String[] specs;
+    private final String[] names;
+
+    /**
+     * @param metricList comma-separated metric names
+     */
+    MetricSet(String metricList) {
+        List<String> specList = new ArrayList<>();
+        for (String spec : metricList.split(",")) {
+            if (!spec.trim().isEmpty()) {
+                specList.add(spec.trim());
+            }
+        }
+        if (specList.isEmpty()) {
+            throw new TasksRunnerException("No metrics given");
+        }
+        specs = specList.toArray(new String[0]);
+        names = new String[specs.length];
+        for (int m = 0; m < specs.length; ++m) {
+            names[m] = Metric.parse(specs[m]).getName();
+        }
+    }
+
+    static MetricSet getDefault() {
+        return new MetricSet(DEFAULT_METRICS);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int m) {
+        return names[m];
+    }
+
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    Engine newEngine() {
+        return new Engine();
+    }
+
+    /**
+     * Scores rankings with one accumulator per metric. Not thread-safe.
+     */
+    class Engine {
+        private final Metric[] metrics;
+
+        Engine() {
+            metrics = new Metric[specs.length];
+            for (int m = 0; m < specs.length; ++m) {
+                metrics[m] = Metric.parse(specs[m]);
+            }
+        }
+
+        /**
+         * Walks the ranking once, to the deepest rank any metric needs, and fills in the
+         * score of each metric.
+         * @param qrels the relevance judgments
+         * @param request the request int
+         * @param docids the ranked docid ints
+         * @param size the number of docids in the ranking
+         * @param scores filled in with one score per metric
+         * @return the number of ranks walked, each one a judgment lookup
+         */
+        int score(QrelIndex qrels, int request, int[] docids, int size, double[] scores) {
+            int depth = Math.min(start(qrels, request), Math.min(size, MAX_DEPTH));
+            for (int i = 0; i < depth; ++i) {
+                add(i + 1, qrels.lookupJudgment(request, docids[i]));
+            }
+            finish(scores);
+            return depth;
+        }
+
+        /**
+         * Starts scoring a ranking a rank at a time, for callers that walk the ranking
+         * themselves (score() does all three steps).
+         * @param qrels the relevance judgments
+         * @param request the request int
+         * @return the deepest rank any metric needs
+         */
+        int start(QrelIndex qrels, int request) {
+            int depth = 0;
+            for (Metric metric : metrics) {
+                depth = Math.max(depth, metric.start(qrels, request));
+            }
+            return depth;
+        }
+
+        /**
+         * Adds the judgment value of the doc at a rank, ranks in order from 1.
+         * @param rank the rank
+         * @param value the raw judgment value, or -1 if the doc is unjudged
+         */
+        void add(int rank, int value) {
+            for (Metric metric : metrics) {
+                metric.add(rank, value);
+            }
+        }
+
+        /**
+         * Fills in the score of each metric for the ranks added since start().
+         * @param scores filled in with one score per metric
+         */
+        void finish(double[] scores) {
+            for (int m = 0; m < metrics.length; ++m) {
+                scores[m] = metrics[m].finish();
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package edu.umass.ciir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The nDCG@k curve of a request's ranking, for every k from 1 to a depth. Cumulative DCG
+ * and iDCG prefix arrays are filled in once per request, in one pass to the depth, and
+ * then nDCG at any cutoff (including R) is a single division, however many are reported.
+ * The sums are accumulated in the same order as the nDCG metric, so nDCG@R and nDCG@k
+ * here are exactly the metric's values. Not thread-safe; the arrays are reused.
+ */
+public class NdcgCurve {
+    private static final Logger logger = Logger.getLogger("Evaluator");
+
+    private final int depth;
+    /* dcg[k] and idcg[k] are DCG@k and iDCG@k; index 0 is 0 */
+    private final double[] dcg = new double[MetricSet.MAX_DEPTH + 1];
+    private final double[] idcg = new double[MetricSet.MAX_DEPTH + 1];
+    private int positiveCount;
+    private double idealDCGAtR;
+
+    /**
+     * @param depth the deepest fixed cutoff that will be asked for, at most MetricSet.MAX_DEPTH
+     */
+    NdcgCurve(int depth) {
+        if (depth < 1 || depth > MetricSet.MAX_DEPTH) {
+            throw new TasksRunnerException("Curve depth must be 1 to " + MetricSet.MAX_DEPTH + ": " + depth);
+        }
+        this.depth = depth;
+    }
+
+    /**
+     * Fills in the prefix arrays for a request's ranking.
+     * @param qrels the relevance judgments
+     * @param request the request int
+     * @param docids the ranked docid ints
+     * @param size the number of docids in the ranking
+     */
+    void compute(QrelIndex qrels, int request, int[] docids, int size) {
+        positiveCount = qrels.getPositiveCount(request);
+        idealDCGAtR = qrels.getIdealDCG(request);
+        /* Go deep enough for nDCG@R as well, as far as the metric engine would */
+        int fill = Math.max(depth, Math.min(positiveCount, MetricSet.MAX_DEPTH));
+        int ranked = Math.min(size, fill);
+        double DCG = 0.0;
+        for (int k = 1; k <= fill; ++k) {
+            if (k <= ranked) {
+                int value = qrels.lookupJudgment(request, docids[k - 1]);
+                if (value > 0) {
+                    DCG += (QrelIndex.mapValue(value) / Discounts.get(k));
+                }
+            }
+            dcg[k] = DCG;
+        }
+        int[] idealGains = qrels.getIdealGains(request);
+        double iDCG = 0.0;
+        for (int k = 1; k <= fill; ++k) {
+            if (k <= idealGains.length) {
+                iDCG += (idealGains[k - 1] / Discounts.get(k));
+            }
+            idcg[k] = iDCG;
+        }
+    }
+
+    /**
+     * Returns nDCG at a cutoff of the last computed ranking.
+     * @param cutoff 1 to the depth, or Metric.CUTOFF_R
+     * @return the nDCG
+     */
+    double get(int cutoff) {
+        if (cutoff == Metric.CUTOFF_R) {
+            return dcg[Math.min(positiveCount, MetricSet.MAX_DEPTH)] / idealDCGAtR;
+        }
+        return dcg[cutoff] / idcg[cutoff];
+    }
+
+    /**
+     * Parses a cutoff list such as "R,5,10,20,100".
+     * @param list the comma-separated cutoffs
+     * @return the cutoffs, with Metric.CUTOFF_R for R
+     */
+    static int[] parseCutoffs(String list) {
+        String[] parts = list.split(",");
+        int[] cutoffs = new int[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            String part = parts[i].trim();
+            if (part.equalsIgnoreCase("R")) {
+                cutoffs[i] = Metric.CUTOFF_R;
+            } else {
+                try {
+                    cutoffs[i] = Integer.parseInt(part);
+                } catch (NumberFormatException e) {
+                    throw new TasksRunnerException("Invalid cutoff: " + part);
+                }
+                if (cutoffs[i] < 1 || cutoffs[i] > MetricSet.MAX_DEPTH) {
+                    throw new TasksRunnerException("Cutoffs must be R or 1 to " + MetricSet.MAX_DEPTH + ": " + part);
+                }
+            }
+        }
+        return cutoffs;
+    }
+
+    /**
+     * Returns nDCG@R followed by every cutoff from 1 to depth.
+     */
+    static int[] fullCurve(int depth) {
+        int[] cutoffs = new int[depth + 1];
+        cutoffs[0] = Metric.CUTOFF_R;
+        for (int k = 1; k <= depth; ++k) {
+            cutoffs[k] = k;
+        }
+        return cutoffs;
+    }
+
+    private static int maxCutoff(int[] cutoffs) {
+        int max = 1;
+        for (int cutoff : cutoffs) {
+            max = Math.max(max, cutoff);
+        }
+        return max;
+    }
+
+    private static String[] names(int[] cutoffs) {
+        String[] names = new String[cutoffs.length];
+        for (int i = 0; i < cutoffs.length; ++i) {
+            names[i] = (cutoffs[i] == Metric.CUTOFF_R ? "nDCG@R" : "nDCG@" + cutoffs[i]);
+        }
+        return names;
+    }
+
+    /**
+     * Scores each request of an Evaluator's run at the given cutoffs.
+     * @param evaluator an Evaluator whose tasks, judgments and run have been read
+     * @param runName the run's name
+     * @param cutoffs the cutoffs, with Metric.CUTOFF_R for R
+     * @return one score per cutoff per request
+     */
+    static EvaluationResult score(Evaluator evaluator, String runName, int[] cutoffs) {
+        QrelIndex qrels = evaluator.getQrels();
+        NdcgCurve curve = new NdcgCurve(maxCutoff(cutoffs));
+        EvaluationResult result = new EvaluationResult(runName, names(cutoffs));
+        for (String requestID : evaluator.getRequestIDs()) {
+            RequestRun run = evaluator.getRequestRun(requestID);
+            /* Skip requests the run has no hits for, or that have no relevance judgments */
+            if (run == null || run.size == 0 || !evaluator.hasRelevanceJudgments(requestID)) {
+                continue;
+            }
+            curve.compute(qrels, qrels.getRequest(requestID), run.docids, run.size);
+            double[] scores = new double[cutoffs.length];
+            for (int i = 0; i < cutoffs.length; ++i) {
+                scores[i] = curve.get(cutoffs[i]);
+            }
+            result.add(requestID, scores);
+        }
+        return result;
+    }
+
+    /**
+     * Entry point for curve mode.
+     * @param args [-depth n] [-cutoffs list] analytic-tasks-file run-file qrel-file output-file
+     */
+    public static void main(String[] args) {
+        CommandLine commandLine = new CommandLine(args);
+        if (commandLine.getPositionalCount() < 4) {
+            System.out.println("evaluator curve: nDCG at every cutoff from 1 to depth, and at R");
+            System.out.println("Usage: evaluator curve [-depth n] [-cutoffs list]"
+                    + " analytic-tasks-file run-file qrel-file output-file");
+            System.exit(-1);
+        }
+        String runFile = commandLine.getPositional(1);
+        String cutoffList = commandLine.getOption("cutoffs", null);
+        int[] cutoffs = (cutoffList == null
+                ? fullCurve(commandLine.getIntOption("depth", MetricSet.MAX_DEPTH))
+                : parseCutoffs(cutoffList));
+        Evaluator evaluator = new Evaluator(commandLine.getPositional(0), runFile,
+                commandLine.getPositional(2), commandLine.getPositional(3));
+        evaluator.setupLogging();
+        evaluator.load();
+        evaluator.readRunFile();
+        logger.info("Computing the nDCG curve at " + cutoffs.length + " cutoffs");
+        Evaluator.writeCSV(score(evaluator, runFile, cutoffs), commandLine.getPositional(3));
+    }
+}
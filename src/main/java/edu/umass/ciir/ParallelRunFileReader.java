@@ -0,0 +1,290 @@
+package edu.umass.ciir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Reads a large run file on several threads. The file is split into chunks that start at
+ * the beginning of a request's block of lines (so no request straddles two chunks), each
+ * chunk is memory-mapped and parsed on its own thread, and the chunks' RequestRuns are
+ * merged back in file order. The result is the same as reading the file sequentially.
+ * <p>
+ * Each chunk interns its unjudged docs in a dictionary of its own; when the chunks are
+ * merged those docs are interned in the run's dictionary and the chunk's docids renumbered.
+ */
+public class ParallelRunFileReader {
+    private static final Logger logger = Logger.getLogger("Evaluator");
+
+    /** Files smaller than this are not worth splitting. */
+    static final long MIN_PARALLEL_SIZE = 64L << 20;
+    /** Chunks per thread, so uneven chunks still balance across the threads. */
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int WINDOW_SIZE = 1 << 16;
+
+    private final DocidLookup qrelDocids;
+    private final DocidDictionary runDocids;
+    private final int threads;
+    private long lineCount;
+    private long workerCpuNanos;
+
+    /**
+     * @param qrelDocids the qrels' doc ID dictionary, which is only read
+     * @param runDocids the run's doc ID dictionary, which extends qrelDocids
+     * @param threads the number of parsing threads
+     */
+    ParallelRunFileReader(DocidLookup qrelDocids, DocidDictionary runDocids, int threads) {
+        this.qrelDocids = qrelDocids;
+        this.runDocids = runDocids;
+        this.threads = threads;
+    }
+
+    /**
+     * Collects one chunk's RequestRuns, with docids from the chunk's own dictionary.
+     */
+    private static class Chunk implements RunFileParser.Listener {
+        final DocidDictionary docids;
+        final List<RequestRun> requestRuns = new ArrayList<>();
+        private RequestRun requestRun;
+        long lines;
+        long cpuNanos;
+
+        Chunk(DocidLookup base) {
+            this.docids = new DocidDictionary(base);
+        }
+
+        @Override
+        public void startRequest(String requestID) {
+            requestRun = new RequestRun(requestID, MetricSet.MAX_DEPTH, docids);
+            requestRuns.add(requestRun);
+        }
+
+        @Override
+        public void hit(String docid, double score) {
+            requestRun.offer(docid, score);
+        }
+
+        @Override
+        public void endRequest() {
+            requestRun.finish();
+        }
+    }
+
+    /**
+     * Reads the run file.
+     * @param runFile the run file name
+     * @return the RequestRuns, in file order
+     */
+    List<RequestRun> read(String runFile) {
+        try (RandomAccessFile file = new RandomAccessFile(runFile, "r");
+             FileChannel channel = file.getChannel()) {
+            long[] boundaries = findChunkBoundaries(channel);
+            logger.info("Parsing run file " + runFile + " in " + (boundaries.length - 1)
+                    + " chunks on " + threads + " threads");
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Chunk>> futures = new ArrayList<>();
+                for (int c = 0; c + 1 < boundaries.length; ++c) {
+                    long start = boundaries[c];
+                    long length = boundaries[c + 1] - start;
+                    futures.add(pool.submit(() -> {
+                        long startCpu = EvaluationStats.threadCpuTime();
+                        Chunk chunk = new Chunk(qrelDocids);
+                        chunk.lines = new RunFileParser(chunk).parse(
+                                channel.map(FileChannel.MapMode.READ_ONLY, start, length));
+                        chunk.cpuNanos = EvaluationStats.threadCpuTime() - startCpu;
+                        return chunk;
+                    }));
+                }
+                List<RequestRun> requestRuns = new ArrayList<>();
+                for (Future<Chunk> future : futures) {
+                    Chunk chunk = future.get();
+                    renumber(chunk);
+                    requestRuns.addAll(chunk.requestRuns);
+                    lineCount += chunk.lines;
+                    workerCpuNanos += chunk.cpuNanos;
+                }
+                return requestRuns;
+            } finally {
+                pool.shutdownNow();
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new TasksRunnerException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TasksRunnerException) {
+                throw (TasksRunnerException) e.getCause();
+            }
+            throw new TasksRunnerException(e);
+        }
+    }
+
+    /**
+     * Returns the number of lines read by read().
+     */
+    long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Returns the CPU time, in nanoseconds, the parsing threads spent in read().
+     */
+    long getWorkerCpuTime() {
+        return workerCpuNanos;
+    }
+
+    /**
+     * Moves a chunk's unjudged docs into the run's dictionary and renumbers its docids.
+     * Interning them in the chunk's first-seen order, chunk by chunk, gives each doc the
+     * same ID the sequential reader would have given it.
+     */
+    private void renumber(Chunk chunk) {
+        int baseSize = runDocids.size();
+        int qrelDocidCount = qrelDocids.size();
+        int[] newDocids = new int[chunk.docids.size() - qrelDocidCount];
+        for (int i = 0; i < newDocids.length; ++i) {
+            newDocids[i] = runDocids.intern(chunk.docids.get(qrelDocidCount + i));
+        }
+        for (RequestRun requestRun : chunk.requestRuns) {
+            for (int i = 0; i < requestRun.size; ++i) {
+                int docid = requestRun.docids[i];
+                if (docid >= qrelDocidCount) {
+                    requestRun.docids[i] = newDocids[docid - qrelDocidCount];
+                }
+            }
+        }
+        logger.fine("Renumbered " + newDocids.length + " docs; run dictionary grew from "
+                + baseSize + " to " + runDocids.size());
+    }
+
+    /**
+     * Splits the file into chunks of about equal size, each starting at the first line of
+     * a request's block. Chunks are also kept under 2GB so each can be mapped.
+     * @return the chunk start offsets, followed by the file size
+     */
+    long[] findChunkBoundaries(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int chunks = threads * CHUNKS_PER_THREAD;
+        while (size / chunks >= Integer.MAX_VALUE / 2) {
+            chunks *= 2;
+        }
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        for (int c = 1; c < chunks; ++c) {
+            long target = Math.max(size / chunks * c, boundaries.get(boundaries.size() - 1));
+            long boundary = findRequestStart(channel, target, size);
+            if (boundary > boundaries.get(boundaries.size() - 1) && boundary < size) {
+                boundaries.add(boundary);
+            }
+        }
+        boundaries.add(size);
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = boundaries.get(i);
+        }
+        for (int i = 1; i < result.length; ++i) {
+            if (result[i] - result[i - 1] > Integer.MAX_VALUE) {
+                throw new TasksRunnerException("A single request's lines are over 2GB; cannot map them");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the offset of the first line after position whose query ID differs from the
+     * last non-blank line before it, or size if there is none.
+     */
+    private static long findRequestStart(FileChannel channel, long position, long size) throws IOException {
+        LineReader reader = new LineReader(channel, size);
+        /* Start at the line that contains position - 1, so a line starting at position is checked */
+        long offset = reader.lineStartBefore(position);
+        byte[] prevQueryID = null;
+        while (offset < size) {
+            byte[] queryID = reader.queryID(offset);
+            if (queryID.length > 0) {
+                if (prevQueryID != null && !Arrays.equals(queryID, prevQueryID)) {
+                    return offset;
+                }
+                prevQueryID = queryID;
+            }
+            offset = reader.nextLineStart(offset);
+        }
+        return size;
+    }
+
+    /**
+     * Reads lines at arbitrary offsets of the file through a small window.
+     */
+    private static class LineReader {
+        private final FileChannel channel;
+        private final long size;
+        private final ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+        private long windowStart = -1;
+
+        LineReader(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        private int byteAt(long offset) throws IOException {
+            return byteAt(offset, false);
+        }
+
+        /**
+         * Returns the byte at offset, moving the window to start there if it is outside it,
+         * or to end there when walking backwards, so the next bytes read are in the window too.
+         */
+        private int byteAt(long offset, boolean backwards) throws IOException {
+            if (windowStart < 0 || offset < windowStart || offset >= windowStart + window.limit()) {
+                windowStart = (backwards ? Math.max(0, offset - WINDOW_SIZE + 1) : offset);
+                window.clear();
+                while (window.hasRemaining() && channel.read(window, windowStart + window.position()) > 0) {
+                    // keep filling
+                }
+                window.flip();
+            }
+            return window.get((int) (offset - windowStart));
+        }
+
+        /** Returns the start of the line containing offset - 1 (0 if offset is 0). */
+        long lineStartBefore(long offset) throws IOException {
+            long o = offset - 1;
+            while (o > 0 && byteAt(o - 1, true) != '\n') {
+                --o;
+            }
+            return Math.max(o, 0);
+        }
+
+        long nextLineStart(long offset) throws IOException {
+            while (offset < size && byteAt(offset) != '\n') {
+                ++offset;
+            }
+            return offset + 1;
+        }
+
+        /** Returns the first column of the line at offset, empty for a blank line. */
+        byte[] queryID(long offset) throws IOException {
+            while (offset < size && (byteAt(offset) == ' ' || byteAt(offset) == '\t')) {
+                ++offset;
+            }
+            long end = offset;
+            int c;
+            while (end < size && (c = byteAt(end)) != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                ++end;
+            }
+            byte[] queryID = new byte[(int) (end - offset)];
+            for (int i = 0; i < queryID.length; ++i) {
+                queryID[i] = (byte) byteAt(offset + i);
+            }
+            return queryID;
+        }
+    }
+}
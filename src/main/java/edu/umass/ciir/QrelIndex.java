@@ -0,0 +1,221 @@
+package edu.umass.ciir;
+
+import java.util.Arrays;
+
+/**
+ * The relevance judgments from a qrels file, indexed for evaluation. Request IDs and doc IDs
+ * are interned to dense ints once, at load time, and judgments are looked up by those ints.
+ * Once loaded, a QrelIndex is read-only and can be shared by many evaluations.
+ * <p>
+ * A text qrels file is parsed into a HeapQrelIndex; a file compiled with compile-qrels
+ * is memory-mapped as a MappedQrelIndex.
+ * <p>
+ * Each request also gets its ideal gain vector and iDCG@R, so scoring a run never has to
+ * sort judgments, and a JudgedSet, so that lookupJudgment() can answer the unjudged docs
+ * that make up most of a deep ranking without a search of the judgments. They are
+ * computed the first time the request is scored, so opening an index does not walk its
+ * judgments.
+ */
+public abstract class QrelIndex {
+    /* By request: its ideal gains, iDCG@R and judged set, or null until they are needed */
+    private Ideal[] ideals;
+
+    /**
+     * A request's ideal gain vector, iDCG@R and judged set. Its fields are final, so an
+     * Ideal that one thread computed and another finds in ideals is seen complete.
+     */
+    private static final class Ideal {
+        final int[] gains;
+        final double dcg;
+        final JudgedSet judgedSet;
+
+        Ideal(int[] gains, double dcg, JudgedSet judgedSet) {
+            this.gains = gains;
+            this.dcg = dcg;
+            this.judgedSet = judgedSet;
+        }
+    }
+
+    /**
+     * Opens a qrels file, either text ("requestID docid judgment" per line, possibly gzip
+     * or zstd compressed) or compiled.
+     * @param qrelFile the qrels file name
+     * @return the index
+     */
+    static QrelIndex read(String qrelFile) {
+        if (MappedQrelIndex.isCompiled(qrelFile)) {
+            return MappedQrelIndex.open(qrelFile);
+        } else {
+            return HeapQrelIndex.read(qrelFile);
+        }
+    }
+
+    /**
+     * Returns the doc ID dictionary. Runs should extend it rather than add to it.
+     */
+    public abstract DocidLookup getDocids();
+
+    /**
+     * Returns the request int for the request ID, or -1 if the request has no judgments.
+     * @param requestID the request ID
+     * @return the request int, or -1
+     */
+    public abstract int getRequest(String requestID);
+
+    /**
+     * Returns the number of requests that have judgments; request ints are 0..count-1.
+     */
+    public abstract int getRequestCount();
+
+    public abstract String getRequestID(int request);
+
+    /**
+     * Returns the number of judged documents for the request.
+     */
+    public abstract int getJudgmentCount(int request);
+
+    /**
+     * Returns the number of judgments for the request that are relevant in some way
+     * (not "not relevant").
+     */
+    public abstract int getPositiveCount(int request);
+
+    /**
+     * Returns the docid int of the request's i'th judgment, in docid order.
+     */
+    public abstract int getJudgedDocid(int request, int i);
+
+    /**
+     * Returns the raw relevance value of the request's i'th judgment, in docid order.
+     */
+    public abstract int getJudgedValue(int request, int i);
+
+    /**
+     * Returns the raw relevance value for the request and docid, or -1 if it is unjudged.
+     * @param request the request int
+     * @param docid the docid int
+     * @return the raw relevance value, or -1
+     */
+    public abstract int getRelevanceJudgmentValue(int request, int docid);
+
+    /**
+     * Returns the relevance judgment value, mapped as MITRE maps them for the IR
+     * nDCG calculation. Unjudged documents are assumed not relevant.
+     * @param request the request int
+     * @param docid the docid int
+     * @return the mapped relevance judgment value
+     */
+    public int getRelevanceJudgmentValueWithMapping(int request, int docid) {
+        int value = lookupJudgment(request, docid);
+        return (value < 0 ? 0 : mapValue(value));
+    }
+
+    /**
+     * Returns the raw relevance value for the request and docid, or -1 if it is unjudged,
+     * as getRelevanceJudgmentValue() does, but tests the request's judged set first, so
+     * an unjudged doc costs one memory access. This is the lookup to use per rank.
+     * @param request the request int
+     * @param docid the docid int (an int past the qrels' doc IDs, or -1, is unjudged)
+     * @return the raw relevance value, or -1
+     */
+    public int lookupJudgment(int request, int docid) {
+        if (!ideal(request).judgedSet.mayContain(docid)) {
+            return -1;
+        }
+        return getRelevanceJudgmentValue(request, docid);
+    }
+
+    /**
+     * Makes room for each request's ideal gain vector, iDCG@R and judged set. Implementations
+     * call this once they are loaded.
+     */
+    void prepareIdeal() {
+        ideals = new Ideal[getRequestCount()];
+    }
+
+    /**
+     * Takes the ideal gain vectors, iDCG@R and judged sets of the requests that did not
+     * change from a previous version of the judgments, as far as they have been computed;
+     * the ones that did change are computed again when they are needed.
+     * @param previous the previous version; its request and docid ints must be unchanged here
+     * @param changedRequests the request ints whose judgments changed, or are new
+     */
+    void prepareIdeal(QrelIndex previous, Iterable<Integer> changedRequests) {
+        ideals = Arrays.copyOf(previous.ideals, getRequestCount());
+        for (int r : changedRequests) {
+            ideals[r] = null;
+        }
+    }
+
+    private Ideal ideal(int request) {
+        Ideal ideal = ideals[request];
+        if (ideal == null) {
+            /* Threads that get here at once each compute the same Ideal; any of them will do */
+            int[] gains = getPositiveValuesWithMappingDescending(request);
+            double iDCG = 0.0;
+            for (int i = 0; i < gains.length; ++i) {
+                iDCG += (gains[i] / Discounts.get(i + 1));
+            }
+            int count = getJudgmentCount(request);
+            int[] docids = new int[count];
+            for (int i = 0; i < count; ++i) {
+                docids[i] = getJudgedDocid(request, i);
+            }
+            ideal = new Ideal(gains, iDCG, new JudgedSet(docids, count));
+            ideals[request] = ideal;
+        }
+        return ideal;
+    }
+
+    /**
+     * Returns the mapped values of the request's positive judgments, highest first.
+     * The array is shared and must not be modified.
+     * @param request the request int
+     * @return the ideal gain vector
+     */
+    public int[] getIdealGains(int request) {
+        return ideal(request).gains;
+    }
+
+    /**
+     * Returns the ideal discounted cumulative gain of the request to depth R, the number
+     * of positive judgments.
+     * @param request the request int
+     * @return iDCG@R
+     */
+    public double getIdealDCG(int request) {
+        return ideal(request).dcg;
+    }
+
+    /**
+     * Returns the mapped values of the request's positive judgments, highest first.
+     * @param request the request int
+     * @return the ideal gain vector
+     */
+    int[] getPositiveValuesWithMappingDescending(int request) {
+        int[] gains = new int[getPositiveCount(request)];
+        int g = 0;
+        for (int i = 0; i < getJudgmentCount(request); ++i) {
+            int v = getJudgedValue(request, i);
+            if (v > 0) {
+                gains[g++] = mapValue(v);
+            }
+        }
+        Arrays.sort(gains);
+        for (int i = 0, k = gains.length - 1; i < k; ++i, --k) {
+            int t = gains[i];
+            gains[i] = gains[k];
+            gains[k] = t;
+        }
+        return gains;
+    }
+
+    /**
+     * Maps a raw relevance value the way MITRE does for nDCG (3 becomes 5, 4 becomes 10).
+     * @param x the raw relevance value
+     * @return the mapped value
+     */
+    static int mapValue(int x) {
+        return (x == 3 ? 5 : (x == 4 ? 10 : x));
+    }
+}
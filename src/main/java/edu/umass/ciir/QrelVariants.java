@@ -0,0 +1,279 @@
+package edu.umass.ciir;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Several versions of the relevance judgments for the same tasks (per-assessor,
+ * adjudicated, with and without pool expansion, ...) held together so that a run can be
+ * scored against all of them in one walk over each ranking.
+ * <p>
+ * The variants share one doc ID dictionary and one request dictionary. For each request,
+ * the docs judged in any variant are kept once, sorted by docid int, and each variant's
+ * grades are a byte array in the same order (-1 where that variant did not judge the
+ * doc), so a ranked doc is looked up once and its grade in every variant read off by
+ * position, once a JudgedSet over them has ruled out most unjudged docs. Each variant is
+ * also a QrelIndex in its own right (getVariant()), with its own ideal gains, for the
+ * metrics to start() from. score() reuses scratch arrays, so only one thread at a time
+ * can score.
+ */
+public class QrelVariants {
+    private final List<String> names;
+    private final DocidDictionary requests = new DocidDictionary();
+    private final DocidDictionary docids = new DocidDictionary();
+    /* By request: the docids judged in any variant, sorted */
+    private int[][] judged;
+    /* By request: a JudgedSet over judged[request] */
+    private JudgedSet[] judgedSets;
+    /* By variant, then request: the grades, in the order of judged[request] */
+    private final List<byte[][]> grades = new ArrayList<>();
+    private final List<Variant> variants = new ArrayList<>();
+    /* Scratch for score(): by variant, the depth to walk and the request's grades */
+    private int[] depths;
+    private byte[][] requestGrades;
+
+    private QrelVariants(List<String> names) {
+        this.names = names;
+    }
+
+    /**
+     * One variant, as a QrelIndex. Request ints are shared by all the variants; a request
+     * the variant has no judgments for is not found by getRequest().
+     */
+    private class Variant extends QrelIndex {
+        private final byte[][] values;
+        /* By request: the positions in judged[request] of this variant's judgments */
+        private final int[][] positions;
+        private final int[] positiveCounts;
+
+        Variant(byte[][] values) {
+            this.values = values;
+            this.positions = new int[values.length][];
+            this.positiveCounts = new int[values.length];
+            for (int r = 0; r < values.length; ++r) {
+                int count = 0;
+                for (byte value : values[r]) {
+                    if (value >= 0) {
+                        ++count;
+                    }
+                }
+                positions[r] = new int[count];
+                for (int i = 0, p = 0; i < values[r].length; ++i) {
+                    if (values[r][i] >= 0) {
+                        positions[r][p++] = i;
+                        if (values[r][i] > 0) {
+                            ++positiveCounts[r];
+                        }
+                    }
+                }
+            }
+            prepareIdeal();
+        }
+
+        @Override
+        public DocidLookup getDocids() {
+            return docids;
+        }
+
+        @Override
+        public int getRequest(String requestID) {
+            int request = requests.lookup(requestID);
+            return (request >= 0 && positions[request].length > 0 ? request : -1);
+        }
+
+        @Override
+        public int getRequestCount() {
+            return values.length;
+        }
+
+        @Override
+        public String getRequestID(int request) {
+            return requests.get(request);
+        }
+
+        @Override
+        public int getJudgmentCount(int request) {
+            return positions[request].length;
+        }
+
+        @Override
+        public int getPositiveCount(int request) {
+            return positiveCounts[request];
+        }
+
+        @Override
+        public int getJudgedDocid(int request, int i) {
+            return judged[request][positions[request][i]];
+        }
+
+        @Override
+        public int getJudgedValue(int request, int i) {
+            return values[request][positions[request][i]];
+        }
+
+        @Override
+        public int getRelevanceJudgmentValue(int request, int docid) {
+            int i = Arrays.binarySearch(judged[request], docid);
+            return (i < 0 ? -1 : values[request][i]);
+        }
+    }
+
+    /**
+     * Reads the qrels files, text or compiled, one after another. Each is read as it
+     * would be on its own (so if a file judges a request/docid more than once, its last
+     * judgment wins), then merged into the shared dictionaries.
+     * @param qrelFiles the qrels files
+     * @return the variants, named by file name
+     */
+    static QrelVariants read(List<String> qrelFiles) {
+        List<String> names = new ArrayList<>();
+        for (String qrelFile : qrelFiles) {
+            names.add(Paths.get(qrelFile).getFileName().toString());
+        }
+        QrelVariants variants = new QrelVariants(names);
+        /* First pass: intern every variant's requests and docs, and gather its judgments
+           by shared request int */
+        List<JudgmentTable> tables = new ArrayList<>();
+        List<int[][]> judgedByVariant = new ArrayList<>();
+        for (String qrelFile : qrelFiles) {
+            QrelIndex qrels = QrelIndex.read(qrelFile);
+            JudgmentTable table = new JudgmentTable();
+            int[][] variantJudged = new int[qrels.getRequestCount()][];
+            int[] requestInts = new int[qrels.getRequestCount()];
+            for (int r = 0; r < qrels.getRequestCount(); ++r) {
+                int request = variants.requests.intern(qrels.getRequestID(r));
+                requestInts[r] = request;
+                variantJudged[r] = new int[qrels.getJudgmentCount(r)];
+                for (int i = 0; i < variantJudged[r].length; ++i) {
+                    int doc = variants.docids.intern(qrels.getDocids().get(qrels.getJudgedDocid(r, i)));
+                    variantJudged[r][i] = doc;
+                    table.put(request, doc, qrels.getJudgedValue(r, i));
+                }
+            }
+            /* Re-index the judged docs by shared request int */
+            int[][] byRequest = new int[variants.requests.size()][];
+            for (int r = 0; r < requestInts.length; ++r) {
+                byRequest[requestInts[r]] = variantJudged[r];
+            }
+            tables.add(table);
+            judgedByVariant.add(byRequest);
+        }
+        /* Second pass: merge each request's judged docs, and lay out the grades by them */
+        int requestCount = variants.requests.size();
+        variants.judged = new int[requestCount][];
+        variants.judgedSets = new JudgedSet[requestCount];
+        for (int r = 0; r < requestCount; ++r) {
+            int total = 0;
+            for (int[][] byRequest : judgedByVariant) {
+                total += (r < byRequest.length && byRequest[r] != null ? byRequest[r].length : 0);
+            }
+            int[] merged = new int[total];
+            int n = 0;
+            for (int[][] byRequest : judgedByVariant) {
+                if (r < byRequest.length && byRequest[r] != null) {
+                    System.arraycopy(byRequest[r], 0, merged, n, byRequest[r].length);
+                    n += byRequest[r].length;
+                }
+            }
+            Arrays.sort(merged);
+            int unique = 0;
+            for (int i = 0; i < merged.length; ++i) {
+                if (i == 0 || merged[i] != merged[i - 1]) {
+                    merged[unique++] = merged[i];
+                }
+            }
+            variants.judged[r] = Arrays.copyOf(merged, unique);
+            variants.judgedSets[r] = new JudgedSet(merged, unique);
+        }
+        for (JudgmentTable table : tables) {
+            byte[][] values = new byte[requestCount][];
+            for (int r = 0; r < requestCount; ++r) {
+                values[r] = new byte[variants.judged[r].length];
+                for (int i = 0; i < values[r].length; ++i) {
+                    values[r][i] = (byte) table.get(r, variants.judged[r][i]);
+                }
+            }
+            variants.grades.add(values);
+            variants.variants.add(variants.new Variant(values));
+        }
+        variants.depths = new int[qrelFiles.size()];
+        variants.requestGrades = new byte[qrelFiles.size()][];
+        return variants;
+    }
+
+    public int getVariantCount() {
+        return names.size();
+    }
+
+    public String getName(int v) {
+        return names.get(v);
+    }
+
+    /**
+     * Returns one variant as a QrelIndex.
+     */
+    public QrelIndex getVariant(int v) {
+        return variants.get(v);
+    }
+
+    /**
+     * Returns the shared request int of a request ID, or -1 if no variant judges it.
+     */
+    int getRequest(String requestID) {
+        return requests.lookup(requestID);
+    }
+
+    /**
+     * Returns true if a variant has judgments for a request.
+     * @param v the variant
+     * @param request the shared request int
+     */
+    boolean judges(int v, int request) {
+        return variants.get(v).positions[request].length > 0;
+    }
+
+    /**
+     * Scores a ranking against every variant that judges the request, in one walk: each
+     * ranked doc is looked up once, and its grade in each variant goes to that variant's
+     * engine.
+     * @param engines an engine per variant
+     * @param request the shared request int
+     * @param docids the ranked docid ints
+     * @param size the number of docids in the ranking
+     * @param scores an array per variant, filled in with the variant's scores if it
+     *               judges the request (see judges()) and left alone if not
+     * @return the number of ranks walked, each one a judgment lookup
+     */
+    int score(MetricSet.Engine[] engines, int request, int[] docids, int size, double[][] scores) {
+        int variantCount = variants.size();
+        int depth = 0;
+        for (int v = 0; v < variantCount; ++v) {
+            depths[v] = 0;
+            if (judges(v, request)) {
+                depths[v] = Math.min(engines[v].start(variants.get(v), request),
+                        Math.min(size, MetricSet.MAX_DEPTH));
+                depth = Math.max(depth, depths[v]);
+            }
+            requestGrades[v] = grades.get(v)[request];
+        }
+        int[] requestJudged = judged[request];
+        JudgedSet judgedSet = judgedSets[request];
+        for (int i = 0; i < depth; ++i) {
+            int position = (judgedSet.mayContain(docids[i])
+                    ? Arrays.binarySearch(requestJudged, docids[i]) : -1);
+            for (int v = 0; v < variantCount; ++v) {
+                if (i < depths[v]) {
+                    engines[v].add(i + 1, (position < 0 ? -1 : requestGrades[v][position]));
+                }
+            }
+        }
+        for (int v = 0; v < variantCount; ++v) {
+            if (judges(v, request)) {
+                engines[v].finish(scores[v]);
+            }
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,54 @@
+package edu.umass.ciir;
+
+import java.util.Arrays;
+
+/**
+ * The relevance judgments for one request, held as parallel arrays sorted by docid int.
+ */
+public class RequestJudgments {
+    String requestID;
+    int request;
+    int[] docids;
+    byte[] values;
+    int positiveCount;
+
+    /**
+     * Builds the compact form of a request's judgments.
+     * @param requestID the request ID
+     * @param request the request int
+     * @param docids the judged docid ints, in any order, without duplicates
+     * @param table the judgment values
+     */
+    RequestJudgments(String requestID, int request, int[] docids, JudgmentTable table) {
+        this.requestID = requestID;
+        this.request = request;
+        this.docids = docids;
+        Arrays.sort(this.docids);
+        this.values = new byte[docids.length];
+        this.positiveCount = 0;
+        for (int i = 0; i < docids.length; ++i) {
+            values[i] = (byte) table.get(request, docids[i]);
+            if (values[i] > 0) {
+                ++positiveCount;
+            }
+        }
+    }
+
+    public String getRequestID() {
+        return requestID;
+    }
+
+    /**
+     * Returns the number of judged documents for this request.
+     */
+    public int size() {
+        return docids.length;
+    }
+
+    /**
+     * Returns the number of judgments that are relevant in some way (not "not relevant").
+     */
+    public int getPositiveCount() {
+        return positiveCount;
+    }
+}
@@ -0,0 +1,135 @@
+package edu.umass.ciir;
+
+import java.util.Arrays;
+
+/**
+ * The ranked hits a run returned for one request, as docid ints and scores.
+ * <p>
+ * Only the best capacity hits are kept, in a bounded min-heap with the worst kept hit at
+ * the root, so memory does not grow with the number of lines a run has for a request.
+ * Hits are ranked like trec_eval does: by descending score, with ties broken by descending
+ * doc ID string, whatever order they were in in the run file. The heap holds the doc ID
+ * strings, and only the hits still in it at finish() are interned, so a hit that is
+ * pushed out later (as in a run sorted worst first) never reaches the dictionary. After
+ * finish() the hits are in rank order and docids holds their ints.
+ */
+public class RequestRun {
+    public String requestID;
+    public int[] docids;
+    public double[] scores;
+    public int size;
+    private final int capacity;
+    private final DocidDictionary dictionary;
+    /* The kept hits' doc IDs, in heap order until finish() */
+    private String[] names;
+
+    /**
+     * @param requestID the request ID
+     * @param capacity the number of hits to keep
+     * @param dictionary the dictionary to intern the kept doc IDs in
+     */
+    RequestRun(String requestID, int capacity, DocidDictionary dictionary) {
+        this.requestID = requestID;
+        this.capacity = capacity;
+        this.dictionary = dictionary;
+        this.docids = new int[0];
+        this.names = new String[Math.min(16, capacity)];
+        this.scores = new double[Math.min(16, capacity)];
+        this.size = 0;
+    }
+
+    /**
+     * Adds a hit, if it ranks above the worst hit kept so far or there is still room.
+     * @param docid the doc ID
+     * @param score the score
+     */
+    void offer(String docid, double score) {
+        if (size < capacity) {
+            if (size == names.length) {
+                names = Arrays.copyOf(names, Math.min(size * 2, capacity));
+                scores = Arrays.copyOf(scores, names.length);
+            }
+            names[size] = docid;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (size > 0 && outranksRoot(docid, score)) {
+            names[0] = docid;
+            scores[0] = score;
+            siftDown(0, size);
+        }
+    }
+
+    /**
+     * Returns the dictionary the kept doc IDs are interned in.
+     */
+    DocidDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Sorts the kept hits into rank order and interns their doc IDs. Called once, after
+     * the last offer().
+     */
+    void finish() {
+        /* Heapsort: moving the worst remaining hit to the end leaves the best first */
+        for (int end = size - 1; end > 0; --end) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        docids = new int[size];
+        for (int i = 0; i < size; ++i) {
+            docids[i] = dictionary.intern(names[i]);
+        }
+        names = null;
+    }
+
+    private boolean outranksRoot(String docid, double score) {
+        int c = Double.compare(score, scores[0]);
+        return c > 0 || (c == 0 && docid.compareTo(names[0]) > 0);
+    }
+
+    /**
+     * Returns true if hit i ranks below hit j.
+     */
+    private boolean ranksBelow(int i, int j) {
+        int c = Double.compare(scores[i], scores[j]);
+        return c < 0 || (c == 0 && names[i].compareTo(names[j]) < 0);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!ranksBelow(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= end) {
+                break;
+            }
+            if (child + 1 < end && ranksBelow(child + 1, child)) {
+                ++child;
+            }
+            if (!ranksBelow(child, i)) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        String name = names[i];
+        names[i] = names[j];
+        names[j] = name;
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
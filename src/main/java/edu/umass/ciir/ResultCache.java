@@ -0,0 +1,237 @@
+package edu.umass.ciir;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * An on-disk cache of evaluation results. An entry's key is a SHA-256 hash of the contents
+ * of the tasks, qrels and run files and of the metric settings, so an entry is found again
+ * only while none of them has changed; changing the qrels file (or any other input) simply
+ * makes its old entries unreachable, and they age out.
+ * <p>
+ * Each entry is a small text file of the request-level scores, at full precision. Reading
+ * an entry touches it, and once the cache directory is over its size limit the least
+ * recently used entries are deleted. Entries are written to a temporary file and moved
+ * into place, so several processes can share a cache directory.
+ */
+public class ResultCache {
+    private static final Logger logger = Logger.getLogger("Evaluator");
+
+    /* Part of every key; change it when scoring changes, to retire the old entries */
+    private static final String VERSION = "evaluator-result-cache 1";
+    private static final String SUFFIX = ".result";
+
+    private final File dir;
+    private final long maxBytes;
+    /* File content hashes, by path, size and modification time, so a file is only hashed once */
+    private final Map<String, String> fileHashes = new ConcurrentHashMap<>();
+
+    /**
+     * @param dir the cache directory, created if necessary
+     * @param maxBytes the size the entries are kept under
+     */
+    ResultCache(File dir, long maxBytes) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new TasksRunnerException("Cannot create cache directory " + dir);
+        }
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cache named by the -cache option, limited to -cache-size megabytes
+     * (default 256), or null if there is no -cache option.
+     */
+    static ResultCache fromCommandLine(CommandLine commandLine) {
+        String dir = commandLine.getOption("cache", null);
+        if (dir == null) {
+            return null;
+        }
+        return new ResultCache(new File(dir), commandLine.getIntOption("cache-size", 256) * (1L << 20));
+    }
+
+    /**
+     * Returns the cache key for an evaluation.
+     * @param tasksFile the analytic tasks file
+     * @param qrelFile the qrels file (text or compiled)
+     * @param runFile the run file
+     * @param metrics the metrics computed
+     * @return the key, or null if one of the files does not exist
+     */
+    String key(String tasksFile, String qrelFile, String runFile, MetricSet metrics) {
+        String tasksHash = fileHash(tasksFile);
+        String qrelHash = fileHash(qrelFile);
+        String runHash = fileHash(runFile);
+        if (tasksHash == null || qrelHash == null || runHash == null) {
+            return null;
+        }
+        MessageDigest digest = newDigest();
+        update(digest, VERSION);
+        update(digest, "depth " + MetricSet.MAX_DEPTH);
+        update(digest, "tasks " + tasksHash);
+        update(digest, "qrels " + qrelHash);
+        update(digest, "run " + runHash);
+        update(digest, "metrics " + String.join(",", metrics.getNames()));
+        return hex(digest.digest());
+    }
+
+    /**
+     * Returns the cached result for a key, or null if there is none.
+     * @param key the key
+     * @param runName the run name to give the result
+     * @return the result, or null
+     */
+    EvaluationResult get(String key, String runName) {
+        File entry = new File(dir, key + SUFFIX);
+        try (BufferedReader reader = new BufferedReader(new FileReader(entry))) {
+            EvaluationResult result = new EvaluationResult(runName, reader.readLine().split("\t"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                double[] scores = new double[fields.length - 1];
+                for (int m = 0; m < scores.length; ++m) {
+                    scores[m] = Double.parseDouble(fields[m + 1]);
+                }
+                result.add(fields[0], scores);
+            }
+            entry.setLastModified(System.currentTimeMillis());
+            logger.info("Result cache hit " + key + " for " + runName);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            /* Missing, or deleted or replaced while being read: treat it as a miss */
+            return null;
+        }
+    }
+
+    /**
+     * Stores a result, then evicts least recently used entries if the cache is too big.
+     * @param key the key
+     * @param result the result
+     */
+    void put(String key, EvaluationResult result) {
+        try {
+            File temp = File.createTempFile("entry", ".tmp", dir);
+            try (Writer writer = new BufferedWriter(new FileWriter(temp))) {
+                writer.write(String.join("\t", result.metricNames));
+                writer.write("\n");
+                for (int i = 0; i < result.size(); ++i) {
+                    writer.write(result.getRequestID(i));
+                    for (int m = 0; m < result.getMetricCount(); ++m) {
+                        writer.write("\t");
+                        writer.write(Double.toString(result.getScore(i, m)));
+                    }
+                    writer.write("\n");
+                }
+            }
+            Files.move(temp.toPath(), new File(dir, key + SUFFIX).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("Cannot write result cache entry " + key + ": " + e);
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is under its size limit.
+     */
+    private synchronized void evict() {
+        File[] entries = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (entries == null) {
+            return;
+        }
+        long total = 0;
+        long[] lastUsed = new long[entries.length];
+        for (int i = 0; i < entries.length; ++i) {
+            total += entries[i].length();
+            lastUsed[i] = entries[i].lastModified();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < entries.length; ++i) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingLong(i -> lastUsed[i]));
+        for (int i : order) {
+            if (total <= maxBytes) {
+                break;
+            }
+            long length = entries[i].length();
+            if (entries[i].delete()) {
+                total -= length;
+                logger.info("Evicted result cache entry " + entries[i].getName());
+            }
+        }
+    }
+
+    /**
+     * Returns the SHA-256 of a file's contents, or null if it does not exist.
+     */
+    private String fileHash(String fileName) {
+        if (fileName == null) {
+            return null;
+        }
+        File f = new File(fileName);
+        if (!f.isFile()) {
+            return null;
+        }
+        String id = f.getAbsolutePath() + "\t" + f.length() + "\t" + f.lastModified();
+        return fileHashes.computeIfAbsent(id, k -> hashContents(f));
+    }
+
+    private static String hashContents(File f) {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(f)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new TasksRunnerException(e);  // every JRE has SHA-256
+        }
+    }
+
+    private static void update(MessageDigest digest, String s) {
+        digest.update(s.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            chars[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            chars[2 * i + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,633 @@
+package edu.umass.ciir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Request-level scores of many runs, kept in a directory as columns of primitives, so that
+ * leaderboards and other queries over thousands of runs read a few mapped arrays instead
+ * of parsing a CSV file per run.
+ * <p>
+ * The directory holds:
+ * <pre>
+ *   runs.txt       run IDs, one per line; a run's int is its line number
+ *   requests.txt   request ID, tab, task ID, one per line; likewise
+ *   metrics.txt    metric names, one per line; likewise
+ *   run.col        int per row: the run int
+ *   request.col    int per row: the request int, or -1 for the run's TOTAL
+ *   metric.col     int per row: the metric int
+ *   value.col      double per row: the score
+ *   runs.idx       per run int: long first row, int row count (0 if not stored)
+ *   lock           held by the Writer, if any
+ * </pre>
+ * The columns are big-endian and are only ever appended to. A run's rows are contiguous:
+ * its requests in tasks file order, each with all its metrics, then a TOTAL row per
+ * metric. Adding a run that is already stored appends its new rows and points the index
+ * at them, so queries go through the index and never see the old ones. The index is
+ * rewritten last when a Writer is closed, to a temporary file that is then moved over the
+ * old one, so a writer that dies part way leaves rows and dictionary lines that nothing
+ * refers to, but a consistent store, and a query never reads a half-written index. Each
+ * column must be under 2GB (268M rows).
+ */
+public class ResultStore {
+    private static final Logger logger = Logger.getLogger("Evaluator");
+
+    static final String RUNS = "runs.txt";
+    static final String REQUESTS = "requests.txt";
+    static final String METRICS = "metrics.txt";
+    static final String RUN_COLUMN = "run.col";
+    static final String REQUEST_COLUMN = "request.col";
+    static final String METRIC_COLUMN = "metric.col";
+    static final String VALUE_COLUMN = "value.col";
+    static final String INDEX = "runs.idx";
+    static final String LOCK = "lock";
+    private static final int INDEX_ENTRY_SIZE = 8 + 4;
+    /* The request int of a run's TOTAL rows */
+    static final int TOTAL = -1;
+
+    private final List<String> runs;
+    private final List<String> requests;
+    private final List<String> requestTasks;
+    private final List<String> metrics;
+    private final long[] firstRows;
+    private final int[] rowCounts;
+    private final IntBuffer requestColumn;
+    private final IntBuffer metricColumn;
+    private final DoubleBuffer valueColumn;
+
+    private ResultStore(File dir) throws IOException {
+        runs = readLines(new File(dir, RUNS));
+        requests = new ArrayList<>();
+        requestTasks = new ArrayList<>();
+        for (String line : readLines(new File(dir, REQUESTS))) {
+            int tab = line.indexOf('\t');
+            requests.add(tab < 0 ? line : line.substring(0, tab));
+            requestTasks.add(tab < 0 ? "" : line.substring(tab + 1));
+        }
+        metrics = readLines(new File(dir, METRICS));
+        firstRows = new long[runs.size()];
+        rowCounts = new int[runs.size()];
+        readIndex(new File(dir, INDEX), firstRows, rowCounts);
+        requestColumn = map(new File(dir, REQUEST_COLUMN)).asIntBuffer();
+        metricColumn = map(new File(dir, METRIC_COLUMN)).asIntBuffer();
+        valueColumn = map(new File(dir, VALUE_COLUMN)).asDoubleBuffer();
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        if (!file.exists()) {
+            return ByteBuffer.allocate(0);
+        }
+        try (RandomAccessFile f = new RandomAccessFile(file, "r");
+             FileChannel channel = f.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (file.exists()) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Reads the index entries of the first firstRows.length runs; runs past the end of the
+     * index file (added to runs.txt by a writer that did not finish) are left unstored.
+     */
+    private static void readIndex(File file, long[] firstRows, int[] rowCounts) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        int entries = (int) Math.min(firstRows.length, file.length() / INDEX_ENTRY_SIZE);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            for (int run = 0; run < entries; ++run) {
+                firstRows[run] = in.readLong();
+                rowCounts[run] = in.readInt();
+            }
+        }
+    }
+
+    /**
+     * Opens a store for querying. The columns are memory-mapped; only the dictionaries and
+     * the index are read.
+     * @param dir the store directory
+     * @return the store
+     */
+    static ResultStore open(String dir) {
+        File d = new File(dir);
+        if (!new File(d, INDEX).isFile()) {
+            throw new TasksRunnerException(dir + " is not a result store");
+        }
+        try {
+            return new ResultStore(d);
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+    }
+
+    /**
+     * Returns the metric int of a metric name, or -1 if no run has it.
+     */
+    int getMetric(String name) {
+        return metrics.indexOf(name);
+    }
+
+    /**
+     * Returns the row of a run's TOTAL for a metric, or -1 if the run does not have the
+     * metric. The TOTAL rows are the last of the run's rows, so only they are read.
+     */
+    private long totalRow(int run, int metric) {
+        long row = firstRows[run] + rowCounts[run] - 1;
+        for (; row >= firstRows[run] && requestColumn.get((int) row) == TOTAL; --row) {
+            if (metricColumn.get((int) row) == metric) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of metrics a run was stored with (its TOTAL rows).
+     */
+    private int metricCount(int run) {
+        int count = 0;
+        for (long row = firstRows[run] + rowCounts[run] - 1;
+             row >= firstRows[run] && requestColumn.get((int) row) == TOTAL; --row) {
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Ranks the stored runs by their TOTAL for a metric, best first, ties by run ID. Like
+     * RequestRun, it keeps the best in a bounded min-heap of run ints, worst at the root,
+     * and heapsorts them at the end, so ranking 10k runs neither boxes nor sorts them all.
+     * @param metric the metric int
+     * @param top the number of runs to rank
+     * @return the best run ints that have the metric, best first
+     */
+    int[] leaderboard(int metric, int top) {
+        int[] heap = new int[Math.min(top, runs.size())];
+        double[] totals = new double[runs.size()];
+        int size = 0;
+        for (int run = 0; run < runs.size(); ++run) {
+            if (rowCounts[run] == 0) {
+                continue;
+            }
+            long row = totalRow(run, metric);
+            if (row < 0) {
+                continue;
+            }
+            totals[run] = valueColumn.get((int) row);
+            if (size < heap.length) {
+                heap[size] = run;
+                siftUp(heap, size++, totals);
+            } else if (size > 0 && ranksBelow(heap[0], run, totals)) {
+                heap[0] = run;
+                siftDown(heap, 0, size, totals);
+            }
+        }
+        /* Heapsort: moving the worst remaining run to the end leaves the best first */
+        for (int end = size - 1; end > 0; --end) {
+            int worst = heap[0];
+            heap[0] = heap[end];
+            heap[end] = worst;
+            siftDown(heap, 0, end, totals);
+        }
+        return Arrays.copyOf(heap, size);
+    }
+
+    /**
+     * Returns true if run a ranks below run b: a lower total, or the same total and a
+     * later run ID.
+     */
+    private boolean ranksBelow(int a, int b, double[] totals) {
+        int c = Double.compare(totals[a], totals[b]);
+        return (c != 0 ? c < 0 : runs.get(a).compareTo(runs.get(b)) > 0);
+    }
+
+    private void siftUp(int[] heap, int i, double[] totals) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!ranksBelow(heap[i], heap[parent], totals)) {
+                return;
+            }
+            int t = heap[i];
+            heap[i] = heap[parent];
+            heap[parent] = t;
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int i, int end, double[] totals) {
+        while (true) {
+            int worst = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < end && ranksBelow(heap[left], heap[worst], totals)) {
+                worst = left;
+            }
+            if (right < end && ranksBelow(heap[right], heap[worst], totals)) {
+                worst = right;
+            }
+            if (worst == i) {
+                return;
+            }
+            int t = heap[i];
+            heap[i] = heap[worst];
+            heap[worst] = t;
+            i = worst;
+        }
+    }
+
+    /**
+     * Calls the visitor with each stored request-level score for a metric, run by run.
+     */
+    private void forEachScore(int metric, ScoreVisitor visitor) {
+        for (int run = 0; run < runs.size(); ++run) {
+            int end = (int) (firstRows[run] + rowCounts[run]);
+            for (int row = (int) firstRows[run]; row < end; ++row) {
+                int request = requestColumn.get(row);
+                if (request != TOTAL && metricColumn.get(row) == metric) {
+                    visitor.score(run, request, valueColumn.get(row));
+                }
+            }
+        }
+    }
+
+    private interface ScoreVisitor {
+        void score(int run, int request, double value);
+    }
+
+    /**
+     * Writes the top runs by their TOTAL for a metric as CSV: Rank,Run,Requests,metric.
+     */
+    void writeLeaderboard(int metric, int top, PrintStream out) {
+        int[] order = leaderboard(metric, top);
+        out.println("Rank,Run,Requests," + metrics.get(metric));
+        for (int i = 0; i < order.length; ++i) {
+            int run = order[i];
+            int metricCount = metricCount(run);
+            int requestCount = rowCounts[run] / metricCount - 1;
+            out.println((i + 1) + "," + runs.get(run) + "," + requestCount + ","
+                    + String.format("%.4f", valueColumn.get((int) totalRow(run, metric))));
+        }
+    }
+
+    /**
+     * Writes each request's best run for a metric as CSV: Request,Task,Runs,Mean,BestRun,Best.
+     * Ties go to the run stored first.
+     */
+    void writeBestRuns(int metric, PrintStream out) {
+        int[] counts = new int[requests.size()];
+        double[] sums = new double[requests.size()];
+        double[] best = new double[requests.size()];
+        int[] bestRuns = new int[requests.size()];
+        Arrays.fill(best, Double.NEGATIVE_INFINITY);
+        forEachScore(metric, (run, request, value) -> {
+            ++counts[request];
+            sums[request] += value;
+            if (value > best[request]) {
+                best[request] = value;
+                bestRuns[request] = run;
+            }
+        });
+        out.println("Request,Task,Runs,Mean,BestRun," + metrics.get(metric));
+        for (int request = 0; request < requests.size(); ++request) {
+            if (counts[request] > 0) {
+                out.println(requests.get(request) + "," + requestTasks.get(request) + "," + counts[request] + ","
+                        + String.format("%.4f", sums[request] / counts[request]) + ","
+                        + runs.get(bestRuns[request]) + "," + String.format("%.4f", best[request]));
+            }
+        }
+    }
+
+    /**
+     * Writes per-task aggregates for a metric as CSV: Task,Requests,Runs,Mean,BestRun,Best.
+     * A run's score for a task is the mean of its scores for the task's requests; Mean is
+     * the mean of those over the runs, and BestRun the run with the highest.
+     */
+    void writeTasks(int metric, PrintStream out) {
+        List<String> taskIDs = new ArrayList<>();
+        Map<String, Integer> taskInts = new HashMap<>();
+        int[] taskOfRequest = new int[requests.size()];
+        for (int request = 0; request < requests.size(); ++request) {
+            String taskID = requestTasks.get(request);
+            Integer task = taskInts.get(taskID);
+            if (task == null) {
+                task = taskIDs.size();
+                taskInts.put(taskID, task);
+                taskIDs.add(taskID);
+            }
+            taskOfRequest[request] = task;
+        }
+        int taskCount = taskIDs.size();
+        /* By run and task: the sum and count of the run's request scores */
+        double[][] sums = new double[runs.size()][taskCount];
+        int[][] counts = new int[runs.size()][taskCount];
+        boolean[] scored = new boolean[requests.size()];
+        forEachScore(metric, (run, request, value) -> {
+            int task = taskOfRequest[request];
+            sums[run][task] += value;
+            ++counts[run][task];
+            scored[request] = true;
+        });
+        int[] requestCounts = new int[taskCount];
+        for (int request = 0; request < requests.size(); ++request) {
+            if (scored[request]) {
+                ++requestCounts[taskOfRequest[request]];
+            }
+        }
+        out.println("Task,Requests,Runs,Mean,BestRun," + metrics.get(metric));
+        for (int task = 0; task < taskCount; ++task) {
+            int runCount = 0;
+            double sum = 0.0;
+            double best = Double.NEGATIVE_INFINITY;
+            int bestRun = -1;
+            for (int run = 0; run < runs.size(); ++run) {
+                if (counts[run][task] > 0) {
+                    double mean = sums[run][task] / counts[run][task];
+                    ++runCount;
+                    sum += mean;
+                    if (mean > best) {
+                        best = mean;
+                        bestRun = run;
+                    }
+                }
+            }
+            if (runCount > 0) {
+                out.println(taskIDs.get(task) + "," + requestCounts[task] + "," + runCount + ","
+                        + String.format("%.4f", sum / runCount) + "," + runs.get(bestRun) + ","
+                        + String.format("%.4f", best));
+            }
+        }
+    }
+
+    /**
+     * Opens a store for adding results, creating the directory if need be. Only one
+     * Writer at a time can have a store open, in this process or any other.
+     * @param dir the store directory
+     * @return the writer, to be closed when the results are all added
+     */
+    static Writer append(String dir) {
+        try {
+            return new Writer(new File(dir));
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+    }
+
+    /**
+     * Adds runs' results to a store. add() is synchronized, so the evaluations of a batch
+     * can add their results as they finish.
+     */
+    static class Writer implements Closeable {
+        private final File dir;
+        private final RandomAccessFile lockFile;
+        private final FileLock lock;
+        private final DocidDictionary runs = new DocidDictionary();
+        private final DocidDictionary requests = new DocidDictionary();
+        private final DocidDictionary metrics = new DocidDictionary();
+        private final java.io.Writer runsOut;
+        private final java.io.Writer requestsOut;
+        private final java.io.Writer metricsOut;
+        private final DataOutputStream runColumn;
+        private final DataOutputStream requestColumn;
+        private final DataOutputStream metricColumn;
+        private final DataOutputStream valueColumn;
+        private long[] firstRows;
+        private int[] rowCounts;
+        private long rows;
+
+        private Writer(File dir) throws IOException {
+            this.dir = dir;
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new TasksRunnerException("Cannot create result store directory " + dir);
+            }
+            lockFile = new RandomAccessFile(new File(dir, LOCK), "rw");
+            lock = lockFile.getChannel().tryLock();
+            if (lock == null) {
+                lockFile.close();
+                throw new TasksRunnerException("Result store " + dir + " is being written by another process");
+            }
+            try {
+                for (String line : readLines(new File(dir, RUNS))) {
+                    runs.intern(line);
+                }
+                for (String line : readLines(new File(dir, REQUESTS))) {
+                    int tab = line.indexOf('\t');
+                    requests.intern(tab < 0 ? line : line.substring(0, tab));
+                }
+                for (String line : readLines(new File(dir, METRICS))) {
+                    metrics.intern(line);
+                }
+                firstRows = new long[runs.size()];
+                rowCounts = new int[runs.size()];
+                readIndex(new File(dir, INDEX), firstRows, rowCounts);
+                /* Drop any rows a writer that died part way got into some columns but not others */
+                rows = Long.MAX_VALUE;
+                for (String column : new String[] {RUN_COLUMN, REQUEST_COLUMN, METRIC_COLUMN}) {
+                    rows = Math.min(rows, new File(dir, column).length() / 4);
+                }
+                rows = Math.min(rows, new File(dir, VALUE_COLUMN).length() / 8);
+                truncate(RUN_COLUMN, rows * 4);
+                truncate(REQUEST_COLUMN, rows * 4);
+                truncate(METRIC_COLUMN, rows * 4);
+                truncate(VALUE_COLUMN, rows * 8);
+                runsOut = appendText(RUNS);
+                requestsOut = appendText(REQUESTS);
+                metricsOut = appendText(METRICS);
+                runColumn = appendColumn(RUN_COLUMN);
+                requestColumn = appendColumn(REQUEST_COLUMN);
+                metricColumn = appendColumn(METRIC_COLUMN);
+                valueColumn = appendColumn(VALUE_COLUMN);
+            } catch (IOException | RuntimeException e) {
+                /* Otherwise the store stays locked until this process exits */
+                lock.release();
+                lockFile.close();
+                throw e;
+            }
+        }
+
+        private void truncate(String column, long length) throws IOException {
+            File file = new File(dir, column);
+            if (file.length() > length) {
+                try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+                    f.setLength(length);
+                }
+            }
+        }
+
+        private java.io.Writer appendText(String name) throws IOException {
+            return new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(dir, name), true), StandardCharsets.UTF_8));
+        }
+
+        private DataOutputStream appendColumn(String name) throws IOException {
+            return new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(dir, name), true), 1 << 16));
+        }
+
+        private static int intern(DocidDictionary dictionary, String s, java.io.Writer out) throws IOException {
+            int size = dictionary.size();
+            int id = dictionary.intern(s);
+            if (id == size) {
+                out.write(s);
+                out.write("\n");
+            }
+            return id;
+        }
+
+        /**
+         * Adds a run's results, replacing any it already has in the store.
+         * @param runID the run's ID in the store, e.g. its file name
+         * @param result the run's request-level scores
+         * @param requestTaskIDs the task ID of each request ID, for requests new to the store
+         */
+        synchronized void add(String runID, EvaluationResult result, Map<String, String> requestTaskIDs) {
+            try {
+                int run = intern(runs, runID, runsOut);
+                int metricCount = result.getMetricCount();
+                int[] metricInts = new int[metricCount];
+                for (int m = 0; m < metricCount; ++m) {
+                    metricInts[m] = intern(metrics, result.getMetricName(m), metricsOut);
+                }
+                long firstRow = rows;
+                for (int i = 0; i < result.size(); ++i) {
+                    String requestID = result.getRequestID(i);
+                    int requestCount = requests.size();
+                    int request = requests.intern(requestID);
+                    if (request == requestCount) {
+                        String taskID = requestTaskIDs.get(requestID);
+                        requestsOut.write(requestID);
+                        requestsOut.write("\t");
+                        requestsOut.write(taskID == null ? "" : taskID);
+                        requestsOut.write("\n");
+                    }
+                    for (int m = 0; m < metricCount; ++m) {
+                        addRow(run, request, metricInts[m], result.getScore(i, m));
+                    }
+                }
+                for (int m = 0; m < metricCount; ++m) {
+                    addRow(run, TOTAL, metricInts[m], result.getTotal(m));
+                }
+                if (run >= firstRows.length) {
+                    firstRows = Arrays.copyOf(firstRows, Math.max(16, 2 * firstRows.length));
+                    rowCounts = Arrays.copyOf(rowCounts, firstRows.length);
+                }
+                firstRows[run] = firstRow;
+                rowCounts[run] = (int) (rows - firstRow);
+            } catch (IOException e) {
+                throw new TasksRunnerException(e);
+            }
+        }
+
+        private void addRow(int run, int request, int metric, double value) throws IOException {
+            runColumn.writeInt(run);
+            requestColumn.writeInt(request);
+            metricColumn.writeInt(metric);
+            valueColumn.writeDouble(value);
+            ++rows;
+        }
+
+        /**
+         * Writes out the added rows and dictionary entries, then the index that makes them
+         * visible to queries.
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                for (Closeable out : new Closeable[] {runColumn, requestColumn, metricColumn, valueColumn,
+                        runsOut, requestsOut, metricsOut}) {
+                    out.close();
+                }
+                ByteBuffer index = ByteBuffer.allocate(runs.size() * INDEX_ENTRY_SIZE);
+                for (int run = 0; run < runs.size(); ++run) {
+                    index.putLong(firstRows[run]);
+                    index.putInt(rowCounts[run]);
+                }
+                File temp = File.createTempFile("runs", ".tmp", dir);
+                try (FileOutputStream out = new FileOutputStream(temp)) {
+                    out.write(index.array());
+                }
+                Files.move(temp.toPath(), new File(dir, INDEX).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                logger.info("Result store " + dir + " has " + runs.size() + " runs, " + rows + " rows");
+            } finally {
+                lock.release();
+                lockFile.close();
+            }
+        }
+    }
+
+    /**
+     * Entry point for query mode.
+     * @param args [-metric name] [-top n] store-dir leaderboard|best-runs|tasks
+     */
+    public static void main(String[] args) {
+        CommandLine commandLine = new CommandLine(args);
+        if (commandLine.getPositionalCount() < 2) {
+            System.out.println("evaluator query: query a result store");
+            System.out.println("Usage: evaluator query [-metric name] [-top n] store-dir leaderboard|best-runs|tasks");
+            System.exit(-1);
+        }
+        ResultStore store = open(commandLine.getPositional(0));
+        String metricName = commandLine.getOption("metric", MetricSet.DEFAULT_METRICS.split(",")[0]);
+        int metric = store.getMetric(metricName);
+        if (metric < 0) {
+            throw new TasksRunnerException("No run in the store has the metric " + metricName);
+        }
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out),
+                1 << 16), false);
+        String query = commandLine.getPositional(1);
+        switch (query) {
+            case "leaderboard":
+                store.writeLeaderboard(metric, commandLine.getIntOption("top", Integer.MAX_VALUE), out);
+                break;
+            case "best-runs":
+                store.writeBestRuns(metric, out);
+                break;
+            case "tasks":
+                store.writeTasks(metric, out);
+                break;
+            default:
+                throw new TasksRunnerException("Unknown query " + query + " (use leaderboard, best-runs or tasks)");
+        }
+        out.flush();
+    }
+}
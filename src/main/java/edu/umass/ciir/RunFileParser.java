@@ -0,0 +1,242 @@
+package edu.umass.ciir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parses a TREC-format run file ("queryID Q0 docid rank score tag") straight out of a
+ * byte buffer. Only columns 0 (query ID), 2 (doc ID) and 4 (score) are looked at, and no
+ * regex or intermediate String arrays are created: a String is made for each doc ID, and
+ * for a query ID only when it differs from the previous line's.
+ * <p>
+ * The lines for one query ID are expected to be contiguous; each contiguous block is
+ * reported to the Listener as startRequest, one hit per line, then endRequest.
+ */
+public class RunFileParser {
+
+    /**
+     * Receives the parsed contents of a run file, one request block at a time.
+     */
+    public interface Listener {
+        void startRequest(String requestID);
+        void hit(String docid, double score);
+        void endRequest();
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final Listener listener;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private byte[] prevQueryID = new byte[64];
+    private int prevQueryIDLength = -1;
+    private long lineNumber = 0;
+
+    RunFileParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Parses the whole stream, reporting each request block to the listener.
+     * @param in the run file contents
+     * @return the number of lines parsed
+     * @throws IOException if the stream cannot be read
+     */
+    long parse(InputStream in) throws IOException {
+        int start = 0;   // start of the unparsed data in buffer
+        int end = 0;     // end of the valid data in buffer
+        while (true) {
+            if (end == buffer.length) {
+                if (start > 0) {
+                    /* Slide the partial line to the front of the buffer */
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                } else {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            int n = in.read(buffer, end, buffer.length - end);
+            if (n < 0) {
+                break;
+            }
+            end += n;
+            int newline;
+            while ((newline = indexOf(buffer, (byte) '\n', start, end)) >= 0) {
+                parseLine(buffer, start, newline);
+                start = newline + 1;
+            }
+        }
+        if (start < end) {
+            parseLine(buffer, start, end);
+        }
+        if (prevQueryIDLength >= 0) {
+            listener.endRequest();
+        }
+        return lineNumber;
+    }
+
+    /**
+     * Parses the remaining bytes of a buffer (e.g. a memory-mapped chunk of a run file),
+     * reporting each request block to the listener.
+     * @param in the run file contents
+     * @return the number of lines parsed
+     */
+    long parse(ByteBuffer in) {
+        try {
+            return parse(new ByteBufferInputStream(in));
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);  // cannot happen reading a buffer
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return (buffer.hasRemaining() ? buffer.get() & 0xff : -1);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+
+    /**
+     * Parses a single line, from..to (exclusive, without the newline).
+     */
+    void parseLine(byte[] b, int from, int to) {
+        ++lineNumber;
+        if (to > from && b[to - 1] == '\r') {
+            --to;
+        }
+        int qStart = skipSpace(b, from, to);
+        if (qStart == to) {
+            return;  // blank line
+        }
+        int qEnd = skipToken(b, qStart, to);
+        int c1End = skipToken(b, skipSpace(b, qEnd, to), to);
+        int dStart = skipSpace(b, c1End, to);
+        int dEnd = skipToken(b, dStart, to);
+        int c3End = skipToken(b, skipSpace(b, dEnd, to), to);
+        int sStart = skipSpace(b, c3End, to);
+        int sEnd = skipToken(b, sStart, to);
+        if (sStart == sEnd) {
+            throw new TasksRunnerException("Run file line " + lineNumber + " has fewer than 5 columns: "
+                    + new String(b, from, to - from, StandardCharsets.UTF_8));
+        }
+        int qLength = qEnd - qStart;
+        if (qLength != prevQueryIDLength || !regionEquals(b, qStart, prevQueryID, qLength)) {
+            if (prevQueryIDLength >= 0) {
+                listener.endRequest();
+            }
+            if (prevQueryID.length < qLength) {
+                prevQueryID = new byte[qLength];
+            }
+            System.arraycopy(b, qStart, prevQueryID, 0, qLength);
+            prevQueryIDLength = qLength;
+            listener.startRequest(new String(b, qStart, qLength, StandardCharsets.UTF_8));
+        }
+        listener.hit(new String(b, dStart, dEnd - dStart, StandardCharsets.UTF_8),
+                parseDouble(b, sStart, sEnd));
+    }
+
+    private static int indexOf(byte[] b, byte c, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static int skipSpace(byte[] b, int from, int to) {
+        while (from < to && isSpace(b[from])) {
+            ++from;
+        }
+        return from;
+    }
+
+    private static int skipToken(byte[] b, int from, int to) {
+        while (from < to && !isSpace(b[from])) {
+            ++from;
+        }
+        return from;
+    }
+
+    private static boolean regionEquals(byte[] b, int from, byte[] other, int length) {
+        for (int i = 0; i < length; ++i) {
+            if (b[from + i] != other[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a score. Plain decimals of up to 15 significant digits are converted directly
+     * (exact, since both the digits and the power of ten are representable as doubles);
+     * anything else (exponents, NaN, long mantissas) goes through Double.parseDouble.
+     */
+    static double parseDouble(byte[] b, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (b[i] == '-' || b[i] == '+')) {
+            negative = (b[i] == '-');
+            ++i;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenPoint = false;
+        boolean seenDigit = false;
+        for (; i < to; ++i) {
+            byte c = b[i];
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa != 0 || c != '0') {
+                    ++digits;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (seenPoint) {
+                    ++fractionDigits;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (i != to || !seenDigit || digits > 15 || fractionDigits >= POWERS_OF_TEN.length) {
+            try {
+                return Double.parseDouble(new String(b, from, to - from, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new TasksRunnerException("Invalid score in run file: "
+                        + new String(b, from, to - from, StandardCharsets.UTF_8));
+            }
+        }
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return (negative ? -value : value);
+    }
+}
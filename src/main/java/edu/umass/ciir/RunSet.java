@@ -0,0 +1,244 @@
+package edu.umass.ciir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * A set of runs kept in memory with their request-level scores, so that when new
+ * judgments arrive as a qrels delta only the requests the delta touches are re-scored,
+ * for every run, and the TOTALs recomputed from the kept scores. The runs' RequestRuns
+ * (their top MetricSet.MAX_DEPTH hits per request) are kept for this.
+ * <p>
+ * A run keeps the doc ints it was read with. The doc IDs a delta adds to the judgments
+ * are looked up in each run's dictionary once, when the delta is applied, so re-scoring
+ * only has to map the few run doc ints that have since been judged.
+ * <p>
+ * All methods are synchronized, except that add() reads and scores its run outside the
+ * lock, against the judgments current when it started; a delta applied meanwhile records
+ * the requests it touched, and add() re-scores those before it keeps the run.
+ */
+public class RunSet {
+    private static final Logger logger = Logger.getLogger("Evaluator");
+
+    /**
+     * A run and its scores by request ID.
+     */
+    private static class KeptRun {
+        final Evaluator evaluator;
+        /* The size of the qrels doc ID dictionary the run was read against */
+        final int qrelDocidCount;
+        final Map<String, double[]> scores = new HashMap<>();
+        /* Run doc ints (sorted) of docs judged since the run was read, and their qrels doc ints */
+        int[] judgedRunDocids = new int[0];
+        int[] judgedQrelDocids = new int[0];
+        /* The qrels doc ints below this have been looked up in the run's dictionary */
+        int mappedQrelDocidCount;
+
+        KeptRun(Evaluator evaluator, int qrelDocidCount) {
+            this.evaluator = evaluator;
+            this.qrelDocidCount = qrelDocidCount;
+            this.mappedQrelDocidCount = qrelDocidCount;
+        }
+
+        /**
+         * Finds the qrels' new doc IDs among the run's docs.
+         */
+        void mapNewDocids(DocidLookup qrelDocids) {
+            DocidDictionary runDocids = evaluator.getRunDocids();
+            if (runDocids == null) {
+                return;
+            }
+            List<long[]> pairs = new ArrayList<>();
+            for (int i = 0; i < judgedRunDocids.length; ++i) {
+                pairs.add(new long[] {judgedRunDocids[i], judgedQrelDocids[i]});
+            }
+            for (int d = mappedQrelDocidCount; d < qrelDocids.size(); ++d) {
+                int runDocid = runDocids.lookup(qrelDocids.get(d));
+                if (runDocid >= qrelDocidCount) {
+                    pairs.add(new long[] {runDocid, d});
+                }
+            }
+            mappedQrelDocidCount = qrelDocids.size();
+            pairs.sort((a, b) -> Long.compare(a[0], b[0]));
+            judgedRunDocids = new int[pairs.size()];
+            judgedQrelDocids = new int[pairs.size()];
+            for (int i = 0; i < pairs.size(); ++i) {
+                judgedRunDocids[i] = (int) pairs.get(i)[0];
+                judgedQrelDocids[i] = (int) pairs.get(i)[1];
+            }
+        }
+
+        /**
+         * Maps a run doc int to the current qrels doc int, or -1 if it is still unjudged.
+         */
+        int qrelDocid(int runDocid) {
+            if (runDocid < qrelDocidCount) {
+                return runDocid;
+            }
+            int i = Arrays.binarySearch(judgedRunDocids, runDocid);
+            return (i < 0 ? -1 : judgedQrelDocids[i]);
+        }
+    }
+
+    private Evaluator loaded;
+    private final Set<String> taskRequestIDs;
+    private final Map<String, KeptRun> runs = new LinkedHashMap<>();
+    /* For each add() in progress: the requests deltas have touched since it started */
+    private final Set<Set<String>> pendingChanges = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @param loaded an Evaluator whose load() has been called
+     */
+    RunSet(Evaluator loaded) {
+        this.loaded = loaded;
+        this.taskRequestIDs = new HashSet<>(loaded.getRequestIDs());
+    }
+
+    /**
+     * Returns an Evaluator with the tasks and the current version of the judgments.
+     */
+    synchronized Evaluator getLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Reads and scores a run file and keeps it, replacing any run kept from the same file.
+     * @param runFile the run file
+     * @return the run's scores
+     */
+    EvaluationResult add(String runFile) {
+        Evaluator started;
+        Set<String> changedRequestIDs = new HashSet<>();
+        synchronized (this) {
+            started = loaded;
+            pendingChanges.add(changedRequestIDs);
+        }
+        try {
+            Evaluator evaluator = new Evaluator(started, runFile);
+            /* The run itself has to be read, to be re-scored later */
+            evaluator.cache = null;
+            EvaluationResult result = evaluator.evaluateRun();
+            KeptRun run = new KeptRun(evaluator, started.getQrels().getDocids().size());
+            for (int i = 0; i < result.size(); ++i) {
+                run.scores.put(result.getRequestID(i), result.scores.get(i));
+            }
+            synchronized (this) {
+                if (!changedRequestIDs.isEmpty()) {
+                    int rescored = rescore(run, changedRequestIDs, loaded.metrics.newEngine());
+                    result = result(runFile, run);
+                    logger.info("Re-scored " + rescored + " requests of run " + runFile
+                            + " touched by qrels deltas while it was read");
+                }
+                runs.put(runFile, run);
+                logger.info("Keeping run " + runFile + " (" + runs.size() + " runs kept)");
+                return result;
+            }
+        } finally {
+            synchronized (this) {
+                pendingChanges.remove(changedRequestIDs);
+            }
+        }
+    }
+
+    /**
+     * Returns the current scores of a kept run, or null if there is no such run.
+     */
+    synchronized EvaluationResult getResult(String runFile) {
+        KeptRun run = runs.get(runFile);
+        return (run == null ? null : result(runFile, run));
+    }
+
+    /**
+     * Returns the current scores of all of the kept runs.
+     */
+    synchronized List<EvaluationResult> getResults() {
+        List<EvaluationResult> results = new ArrayList<>();
+        for (Map.Entry<String, KeptRun> entry : runs.entrySet()) {
+            results.add(result(entry.getKey(), entry.getValue()));
+        }
+        return results;
+    }
+
+    /**
+     * Applies a qrels delta to the current judgments and re-scores the requests it
+     * touches in every kept run. Runs added or evaluated afterwards use the new judgments.
+     * @param delta new or changed judgments, in qrels format
+     * @return the IDs of the requests the delta touched
+     * @throws IOException if the delta cannot be read
+     */
+    synchronized Set<String> applyDelta(InputStream delta) throws IOException {
+        Set<String> changedRequestIDs = new LinkedHashSet<>();
+        QrelIndex qrels = DeltaQrelIndex.apply(loaded.getQrels(), delta, changedRequestIDs);
+        loaded = loaded.withQrels(qrels);
+        for (Set<String> pending : pendingChanges) {
+            pending.addAll(changedRequestIDs);
+        }
+        MetricSet.Engine engine = loaded.metrics.newEngine();
+        int rescored = 0;
+        for (KeptRun run : runs.values()) {
+            rescored += rescore(run, changedRequestIDs, engine);
+        }
+        logger.info("Applied qrels delta touching " + changedRequestIDs.size() + " requests; re-scored "
+                + rescored + " request runs over " + runs.size() + " runs");
+        return changedRequestIDs;
+    }
+
+    /**
+     * Re-scores a run's requests against the current judgments.
+     * @return the number of requests re-scored
+     */
+    private int rescore(KeptRun run, Set<String> requestIDs, MetricSet.Engine engine) {
+        QrelIndex qrels = loaded.getQrels();
+        run.mapNewDocids(qrels.getDocids());
+        int rescored = 0;
+        for (String requestID : requestIDs) {
+            if (taskRequestIDs.contains(requestID)) {
+                rescore(run, requestID, qrels, engine);
+                ++rescored;
+            }
+        }
+        return rescored;
+    }
+
+    private void rescore(KeptRun run, String requestID, QrelIndex qrels, MetricSet.Engine engine) {
+        RequestRun requestRun = run.evaluator.getRequestRun(requestID);
+        int request = qrels.getRequest(requestID);
+        if (requestRun == null || requestRun.size == 0 || request < 0) {
+            run.scores.remove(requestID);
+            return;
+        }
+        int[] docids = new int[requestRun.size];
+        for (int i = 0; i < docids.length; ++i) {
+            docids[i] = run.qrelDocid(requestRun.docids[i]);
+        }
+        double[] scores = new double[loaded.metrics.size()];
+        engine.score(qrels, request, docids, docids.length, scores);
+        run.scores.put(requestID, scores);
+    }
+
+    /**
+     * Puts a run's kept scores in tasks file order, as a fresh evaluation would have them.
+     */
+    private EvaluationResult result(String runFile, KeptRun run) {
+        EvaluationResult result = new EvaluationResult(runFile, loaded.metrics.getNames());
+        for (String requestID : loaded.getRequestIDs()) {
+            double[] scores = run.scores.get(requestID);
+            if (scores != null) {
+                result.add(requestID, scores);
+            }
+        }
+        return result;
+    }
+}
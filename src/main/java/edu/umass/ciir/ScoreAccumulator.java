@@ -0,0 +1,126 @@
+package edu.umass.ciir;
+
+import java.util.Arrays;
+
+/**
+ * Adds up scores by docid int, without boxing: an open-addressed table of docids with a
+ * running sum and a count of the scores added for each. It is meant to be reused, one
+ * request after another; clear() only resets the slots that were used. Not thread-safe.
+ */
+class ScoreAccumulator {
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private double[] sums;
+    private int[] counts;
+    /* The slots in use, in the order their docids were first added */
+    private int[] slots;
+    private int size = 0;
+
+    /**
+     * @param expected the number of docids expected per use; the table grows past it
+     */
+    ScoreAccumulator(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1;
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        sums = new double[capacity];
+        counts = new int[capacity];
+        slots = new int[capacity / 2];
+    }
+
+    /**
+     * Adds a score to a docid's sum.
+     */
+    void add(int docid, double score) {
+        int mask = keys.length - 1;
+        int slot = mix(docid) & mask;
+        while (keys[slot] != docid) {
+            if (keys[slot] == EMPTY) {
+                if (size == slots.length) {
+                    grow();
+                    add(docid, score);
+                    return;
+                }
+                keys[slot] = docid;
+                slots[size++] = slot;
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        sums[slot] += score;
+        ++counts[slot];
+    }
+
+    /**
+     * Returns the number of docids with scores.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the i'th docid added, for i from 0 to size() - 1.
+     */
+    int getDocid(int i) {
+        return keys[slots[i]];
+    }
+
+    /**
+     * Returns the sum of the i'th docid's scores.
+     */
+    double getSum(int i) {
+        return sums[slots[i]];
+    }
+
+    /**
+     * Returns the number of scores added for the i'th docid.
+     */
+    int getCount(int i) {
+        return counts[slots[i]];
+    }
+
+    /**
+     * Empties the accumulator for the next use.
+     */
+    void clear() {
+        for (int i = 0; i < size; ++i) {
+            int slot = slots[i];
+            keys[slot] = EMPTY;
+            sums[slot] = 0.0;
+            counts[slot] = 0;
+        }
+        size = 0;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        double[] oldSums = sums;
+        int[] oldCounts = counts;
+        int[] oldSlots = slots;
+        int oldSize = size;
+        keys = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        sums = new double[keys.length];
+        counts = new int[keys.length];
+        slots = new int[keys.length / 2];
+        size = 0;
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldSize; ++i) {
+            int old = oldSlots[i];
+            int slot = mix(oldKeys[old]) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[old];
+            sums[slot] = oldSums[old];
+            counts[slot] = oldCounts[old];
+            slots[size++] = slot;
+        }
+    }
+
+    private static int mix(int docid) {
+        int h = docid * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,164 @@
+package edu.umass.ciir;
+
+import java.util.Arrays;
+
+/**
+ * Scores rankings in-process, for programs that evaluate many rankings without going
+ * through files, such as learning-to-rank training loops. The qrels are loaded once;
+ * rankings are given as doc ints from the qrels' dictionary (see docid()), or as doc ID
+ * strings, which are looked up in it. Scores are the same as the evaluator's: only the
+ * first MetricSet.MAX_DEPTH hits count, and docs the qrels do not judge are not relevant.
+ * <p>
+ * Scoring does not allocate: the caller passes in the rankings and the arrays the scores
+ * go in, and a Scorer reuses its own accumulators and scratch array. That makes a Scorer
+ * not thread-safe; give each thread its own (new Scorer(scorer) shares the qrels).
+ */
+public class Scorer {
+    private final QrelIndex qrels;
+    private final MetricSet metrics;
+    private final MetricSet.Engine engine;
+    private final double[] scores;
+    private final int[] ranking = new int[MetricSet.MAX_DEPTH];
+
+    /**
+     * Makes a Scorer for nDCG@R.
+     * @param qrels the relevance judgments, e.g. from loadQrels()
+     */
+    public Scorer(QrelIndex qrels) {
+        this(qrels, MetricSet.DEFAULT_METRICS);
+    }
+
+    /**
+     * @param qrels the relevance judgments, e.g. from loadQrels()
+     * @param metricList comma-separated metric names, as for -metrics (e.g. "nDCG@R,AP,P@10")
+     */
+    public Scorer(QrelIndex qrels, String metricList) {
+        this(qrels, new MetricSet(metricList));
+    }
+
+    /**
+     * Makes a Scorer for another thread, sharing the qrels and metrics.
+     */
+    public Scorer(Scorer other) {
+        this(other.qrels, other.metrics);
+    }
+
+    private Scorer(QrelIndex qrels, MetricSet metrics) {
+        this.qrels = qrels;
+        this.metrics = metrics;
+        this.engine = metrics.newEngine();
+        this.scores = new double[metrics.size()];
+    }
+
+    /**
+     * Loads a qrels file, either text or compiled (see compile-qrels). The result is
+     * read-only and can be shared by any number of Scorers.
+     */
+    public static QrelIndex loadQrels(String qrelFile) {
+        return QrelIndex.read(qrelFile);
+    }
+
+    public QrelIndex getQrels() {
+        return qrels;
+    }
+
+    public int getMetricCount() {
+        return metrics.size();
+    }
+
+    public String getMetricName(int m) {
+        return metrics.getName(m);
+    }
+
+    /**
+     * Returns the request int of a request ID, or -1 if the qrels have no judgments for it.
+     */
+    public int request(String requestID) {
+        return qrels.getRequest(requestID);
+    }
+
+    /**
+     * Returns the doc int of a doc ID, or -1 if the qrels do not judge it. Rankings can mix
+     * the two: any int that is not a judged doc's counts as an unjudged doc.
+     */
+    public int docid(String docid) {
+        return qrels.getDocids().lookup(docid);
+    }
+
+    /**
+     * Scores a ranking of doc ints with the first metric (nDCG@R by default).
+     * @param request the request int, from request()
+     * @param docids the ranked doc ints, from docid()
+     * @param size the number of docs in the ranking
+     * @return the score, or NaN if the request has no judgments (request is -1)
+     */
+    public double score(int request, int[] docids, int size) {
+        if (request < 0) {
+            return Double.NaN;
+        }
+        engine.score(qrels, request, docids, size, scores);
+        return scores[0];
+    }
+
+    /**
+     * Scores a ranking of doc ints with every metric.
+     * @param request the request int, from request()
+     * @param docids the ranked doc ints, from docid()
+     * @param size the number of docs in the ranking
+     * @param out filled in with getMetricCount() scores starting at out[offset] (NaN if the
+     *            request has no judgments)
+     * @param offset where in out the scores go
+     */
+    public void score(int request, int[] docids, int size, double[] out, int offset) {
+        if (request < 0) {
+            Arrays.fill(out, offset, offset + scores.length, Double.NaN);
+            return;
+        }
+        engine.score(qrels, request, docids, size, scores);
+        System.arraycopy(scores, 0, out, offset, scores.length);
+    }
+
+    /**
+     * Scores a ranking of doc ID strings with the first metric. The doc IDs are looked up
+     * in the qrels dictionary, which does not allocate for a text qrels file; a compiled
+     * one encodes each string it looks up, so map doc IDs to ints once with docid()
+     * when the same docs are ranked over and over.
+     * @param request the request int, from request()
+     * @param docids the ranked doc IDs
+     * @param size the number of docs in the ranking
+     * @return the score, or NaN if the request has no judgments
+     */
+    public double score(int request, String[] docids, int size) {
+        return score(request, toInts(docids, size), Math.min(size, ranking.length));
+    }
+
+    /**
+     * Scores a ranking of doc ID strings with every metric; see score(int, String[], int).
+     */
+    public void score(int request, String[] docids, int size, double[] out, int offset) {
+        score(request, toInts(docids, size), Math.min(size, ranking.length), out, offset);
+    }
+
+    /**
+     * Scores many rankings with every metric.
+     * @param requests the request int of each ranking
+     * @param rankings the rankings, as doc ints
+     * @param sizes the number of docs in each ranking
+     * @param count the number of rankings
+     * @param out filled in with the scores of ranking i at out[i * getMetricCount() + m]
+     */
+    public void scoreAll(int[] requests, int[][] rankings, int[] sizes, int count, double[] out) {
+        for (int i = 0; i < count; ++i) {
+            score(requests[i], rankings[i], sizes[i], out, i * scores.length);
+        }
+    }
+
+    private int[] toInts(String[] docids, int size) {
+        DocidLookup dictionary = qrels.getDocids();
+        int depth = Math.min(size, ranking.length);
+        for (int i = 0; i < depth; ++i) {
+            ranking[i] = dictionary.lookup(docids[i]);
+        }
+        return ranking;
+    }
+}
@@ -0,0 +1,143 @@
+package edu.umass.ciir;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Two-sided paired significance tests on per-request score differences, run on a
+ * fork-join pool. The iterations are split into blocks, and each block draws from its own
+ * SplittableRandom (split from one seeded generator), so results are reproducible for a
+ * given seed no matter how many threads run them.
+ */
+public class SignificanceTest {
+    /** Iterations per fork-join leaf. */
+    private static final int BLOCK_SIZE = 8192;
+
+    private final ForkJoinPool pool;
+    private final long seed;
+
+    SignificanceTest(ForkJoinPool pool, long seed) {
+        this.pool = pool;
+        this.seed = seed;
+    }
+
+    static double mean(double[] values) {
+        double total = 0.0;
+        for (double v : values) {
+            total += v;
+        }
+        return total / values.length;
+    }
+
+    /**
+     * Paired randomization (permutation) test: each iteration swaps the two runs' scores
+     * for a random subset of requests, i.e. flips the signs of those differences, and the
+     * p-value is the fraction of iterations whose mean difference is at least as extreme
+     * as the observed one, counting the observed ranking as one of them so it is never 0.
+     * @param diffs the per-request score differences
+     * @param iterations the number of random permutations
+     * @return the p-value
+     */
+    public double randomization(double[] diffs, int iterations) {
+        double observed = Math.abs(mean(diffs));
+        long count = pool.invoke(new Block(diffs, observed, false, 0, iterations,
+                new SplittableRandom(seed)));
+        return (count + 1.0) / (iterations + 1);
+    }
+
+    /**
+     * Paired bootstrap test (shift method): the differences are shifted to mean zero, and
+     * each iteration resamples them with replacement. The p-value is the fraction of
+     * resamples whose mean is at least as extreme as the observed mean difference, counting
+     * the observed sample as one of them so it is never 0.
+     * @param diffs the per-request score differences
+     * @param iterations the number of bootstrap samples
+     * @return the p-value
+     */
+    public double bootstrap(double[] diffs, int iterations) {
+        double observedMean = mean(diffs);
+        double[] shifted = new double[diffs.length];
+        for (int i = 0; i < diffs.length; ++i) {
+            shifted[i] = diffs[i] - observedMean;
+        }
+        long count = pool.invoke(new Block(shifted, Math.abs(observedMean), true, 0, iterations,
+                new SplittableRandom(seed)));
+        return (count + 1.0) / (iterations + 1);
+    }
+
+    /**
+     * Counts the iterations from..to whose mean is at least as extreme as observed.
+     */
+    private static class Block extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] values;
+        private final double observed;
+        private final boolean bootstrap;
+        private final int from;
+        private final int to;
+        private final SplittableRandom random;
+
+        Block(double[] values, double observed, boolean bootstrap, int from, int to,
+              SplittableRandom random) {
+            this.values = values;
+            this.observed = observed;
+            this.bootstrap = bootstrap;
+            this.from = from;
+            this.to = to;
+            this.random = random;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= BLOCK_SIZE) {
+                return (bootstrap ? countBootstrap() : countRandomization());
+            }
+            int mid = (from + to) >>> 1;
+            Block left = new Block(values, observed, bootstrap, from, mid, random.split());
+            Block right = new Block(values, observed, bootstrap, mid, to, random.split());
+            left.fork();
+            long rightCount = right.compute();
+            return left.join() + rightCount;
+        }
+
+        private long countRandomization() {
+            int n = values.length;
+            /* Compare sums rather than means; the small slack keeps ties counted as extreme */
+            double threshold = observed * n - 1e-9;
+            long count = 0;
+            for (int iteration = from; iteration < to; ++iteration) {
+                double sum = 0.0;
+                long bits = 0;
+                for (int i = 0; i < n; ++i) {
+                    if ((i & 63) == 0) {
+                        bits = random.nextLong();
+                    }
+                    sum += ((bits & 1) == 0 ? values[i] : -values[i]);
+                    bits >>>= 1;
+                }
+                if (Math.abs(sum) >= threshold) {
+                    ++count;
+                }
+            }
+            return count;
+        }
+
+        private long countBootstrap() {
+            int n = values.length;
+            double threshold = observed * n - 1e-9;
+            long count = 0;
+            for (int iteration = from; iteration < to; ++iteration) {
+                double sum = 0.0;
+                for (int i = 0; i < n; ++i) {
+                    sum += values[random.nextInt(n)];
+                }
+                if (Math.abs(sum) >= threshold) {
+                    ++count;
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package edu.umass.ciir;
+
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Evaluates a run file while it is being read: each request is scored as soon as its
+ * contiguous block of lines ends, its CSV line is written and flushed straight away, and
+ * the running micro-average is updated. Only one request's hits are held at a time, and
+ * only its top-ranked MetricSet.MAX_DEPTH (see RequestRun), so memory does not grow with
+ * the run.
+ * <p>
+ * In follow mode the file is kept open after reaching its end, like tail -f, so a run can
+ * be evaluated while retrieval is still writing it. The evaluation ends once the file has
+ * not grown for the idle timeout.
+ * <p>
+ * Rows are in run file order. A request whose lines are not contiguous is scored once
+ * for each block.
+ */
+public class StreamingEvaluator implements RunFileParser.Listener {
+    private static final Logger logger = Logger.getLogger("Evaluator");
+
+    private final QrelIndex qrels;
+    private final MetricSet metrics;
+    private final MetricSet.Engine engine;
+    private final Set<String> requestIDs;
+    private final Writer csvWriter;
+    private final double[] scores;
+    private final double[] totals;
+    private int totalRequests = 0;
+
+    private int request;
+    private RequestRun requestRun;
+
+    StreamingEvaluator(Evaluator loaded, Writer csvWriter) {
+        this.qrels = loaded.getQrels();
+        this.metrics = loaded.metrics;
+        this.engine = metrics.newEngine();
+        this.requestIDs = new HashSet<>(loaded.getRequestIDs());
+        this.csvWriter = csvWriter;
+        this.scores = new double[metrics.size()];
+        this.totals = new double[metrics.size()];
+    }
+
+    /**
+     * An input stream that, at the end of the file, waits for more to be written instead of
+     * returning end-of-file, until the file has not grown for the idle timeout.
+     */
+    static class FollowingInputStream extends InputStream {
+        private static final long POLL_MILLIS = 200;
+        private final InputStream in;
+        private final long idleTimeoutMillis;
+
+        FollowingInputStream(InputStream in, long idleTimeoutMillis) {
+            this.in = in;
+            this.idleTimeoutMillis = idleTimeoutMillis;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0 ? -1 : b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long idleSince = System.currentTimeMillis();
+            while (true) {
+                int n = in.read(b, off, len);
+                if (n != -1) {
+                    return n;
+                }
+                if (System.currentTimeMillis() - idleSince >= idleTimeoutMillis) {
+                    return -1;
+                }
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    void writeHeader() throws IOException {
+        csvWriter.append("Request");
+        for (String metricName : metrics.getNames()) {
+            csvWriter.append(",");
+            csvWriter.append(metricName);
+        }
+        csvWriter.append("\n");
+        csvWriter.flush();
+    }
+
+    void writeTotal() throws IOException {
+        csvWriter.append("TOTAL");
+        for (int m = 0; m < metrics.size(); ++m) {
+            csvWriter.append(",");
+            csvWriter.append(String.format("%.4f", totals[m] / totalRequests));
+        }
+        csvWriter.append("\n");
+        csvWriter.flush();
+    }
+
+    @Override
+    public void startRequest(String requestID) {
+        this.request = (requestIDs.contains(requestID) ? qrels.getRequest(requestID) : -1);
+        /* Unjudged docs are interned in a dictionary that only lives as long as the request */
+        this.requestRun = new RequestRun(requestID, (request < 0 ? 0 : MetricSet.MAX_DEPTH),
+                new DocidDictionary(qrels.getDocids()));
+    }
+
+    @Override
+    public void hit(String docid, double score) {
+        requestRun.offer(docid, score);
+    }
+
+    @Override
+    public void endRequest() {
+        /* Skip requests that are not in the tasks file or have no relevance judgments */
+        if (request < 0 || requestRun.size == 0) {
+            return;
+        }
+        requestRun.finish();
+        engine.score(qrels, request, requestRun.docids, requestRun.size, scores);
+        ++totalRequests;
+        try {
+            csvWriter.append(requestRun.requestID);
+            for (int m = 0; m < scores.length; ++m) {
+                totals[m] += scores[m];
+                csvWriter.append(",");
+                csvWriter.append(String.format("%.4f", scores[m]));
+            }
+            csvWriter.append("\n");
+            csvWriter.flush();
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+        logger.info(requestRun.requestID + " " + String.format("%.4f", scores[0]) + "  running "
+                + metrics.getName(0) + " " + String.format("%.4f", totals[0] / totalRequests)
+                + " over " + totalRequests + " requests");
+    }
+
+    /**
+     * Entry point for streaming mode.
+     * @param args [-follow] [-idle-timeout seconds] [-metrics list]
+     *             analytic-tasks-file run-file qrel-file output-file
+     */
+    public static void main(String[] args) {
+        CommandLine commandLine = new CommandLine(args, "follow");
+        if (commandLine.getPositionalCount() < 4) {
+            System.out.println("evaluator stream: score each request as soon as the run file has it");
+            System.out.println("Usage: evaluator stream [-follow] [-idle-timeout seconds] [-metrics list]"
+                    + " analytic-tasks-file run-file qrel-file output-file");
+            System.exit(-1);
+        }
+        String runFile = commandLine.getPositional(1);
+        Evaluator evaluator = new Evaluator(commandLine.getPositional(0), runFile,
+                commandLine.getPositional(2), commandLine.getPositional(3));
+        evaluator.metrics = new MetricSet(commandLine.getOption("metrics", MetricSet.DEFAULT_METRICS));
+        evaluator.setupLogging();
+        evaluator.load();
+        long idleTimeoutMillis = commandLine.getIntOption("idle-timeout", 60) * 1000L;
+        logger.info("Streaming run file " + runFile);
+        try (Writer csvWriter = new FileWriter(commandLine.getPositional(3));
+             InputStream in = (commandLine.hasFlag("follow")
+                     ? new FollowingInputStream(new FileInputStream(runFile), idleTimeoutMillis)
+                     : CompressedInput.open(runFile))) {
+            StreamingEvaluator streamingEvaluator = new StreamingEvaluator(evaluator, csvWriter);
+            streamingEvaluator.writeHeader();
+            new RunFileParser(streamingEvaluator).parse(in);
+            streamingEvaluator.writeTotal();
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package edu.umass.ciir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads an analytic tasks file ("[{"task-num": ..., "requests": [{"req-num": ...}, ...]}, ...]")
+ * straight from the bytes, keeping only the task and request numbers. Every other value
+ * (task-docs, task-narr, req-text and so on) is skipped by scanning past it, without
+ * building strings, objects or arrays for it, so the time and memory needed do not depend
+ * on how much text the file carries.
+ */
+public class TasksFileParser {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+    private long offset = 0;   // file offset of buffer[0]
+    private final ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+
+    TasksFileParser(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Parses the whole file.
+     * @return the tasks, with their requests; titles, narratives and request texts are empty
+     * @throws IOException if the stream cannot be read
+     */
+    List<Task> parse() throws IOException {
+        List<Task> tasks = new ArrayList<>();
+        expect('[');
+        if (peek() == ']') {
+            next();
+            return tasks;
+        }
+        do {
+            tasks.add(parseTask());
+        } while (endOfElement(']'));
+        return tasks;
+    }
+
+    private Task parseTask() throws IOException {
+        String taskNum = null;
+        List<Request> requests = new ArrayList<>();
+        expect('{');
+        if (peek() == '}') {
+            next();
+        } else {
+            do {
+                String key = readString();
+                expect(':');
+                if (key.equals("task-num")) {
+                    taskNum = readStringOrNull();
+                } else if (key.equals("requests") && peek() == '[') {
+                    parseRequests(requests);
+                } else {
+                    skipValue();
+                }
+            } while (endOfElement('}'));
+        }
+        return new Task(taskNum, "", "", "", requests);
+    }
+
+    private void parseRequests(List<Request> requests) throws IOException {
+        expect('[');
+        if (peek() == ']') {
+            next();
+            return;
+        }
+        do {
+            String reqNum = null;
+            expect('{');
+            if (peek() == '}') {
+                next();
+            } else {
+                do {
+                    String key = readString();
+                    expect(':');
+                    if (key.equals("req-num")) {
+                        reqNum = readStringOrNull();
+                    } else {
+                        skipValue();
+                    }
+                } while (endOfElement('}'));
+            }
+            requests.add(new Request(reqNum, ""));
+        } while (endOfElement(']'));
+    }
+
+    /**
+     * Reads the separator after an array element or object member.
+     * @return true if another element follows, false if the closing bracket was read
+     */
+    private boolean endOfElement(char close) throws IOException {
+        int c = nextNonSpace();
+        if (c == ',') {
+            return true;
+        } else if (c == close) {
+            return false;
+        }
+        throw error("expected ',' or '" + close + "'", c);
+    }
+
+    private String readStringOrNull() throws IOException {
+        if (peek() == 'n') {
+            skipValue();
+            return null;
+        }
+        return readString();
+    }
+
+    /**
+     * Reads a string value, decoding its escapes.
+     */
+    private String readString() throws IOException {
+        expect('"');
+        stringBytes.reset();
+        while (true) {
+            int c = next();
+            if (c == '"') {
+                break;
+            } else if (c == '\\') {
+                int e = next();
+                switch (e) {
+                    case 'b': stringBytes.write('\b'); break;
+                    case 'f': stringBytes.write('\f'); break;
+                    case 'n': stringBytes.write('\n'); break;
+                    case 'r': stringBytes.write('\r'); break;
+                    case 't': stringBytes.write('\t'); break;
+                    case 'u': writeUnicodeEscape(); break;
+                    case -1: throw error("unterminated string", e);
+                    default: stringBytes.write(e); break;
+                }
+            } else if (c < 0) {
+                throw error("unterminated string", c);
+            } else {
+                stringBytes.write(c);
+            }
+        }
+        return new String(stringBytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void writeUnicodeEscape() throws IOException {
+        int code = readHex4();
+        if (Character.isHighSurrogate((char) code) && peekRaw() == '\\') {
+            next();
+            expect('u');
+            String pair = new String(new char[] {(char) code, (char) readHex4()});
+            stringBytes.write(pair.getBytes(StandardCharsets.UTF_8));
+        } else {
+            byte[] b = String.valueOf((char) code).getBytes(StandardCharsets.UTF_8);
+            stringBytes.write(b, 0, b.length);
+        }
+    }
+
+    private int readHex4() throws IOException {
+        int code = 0;
+        for (int i = 0; i < 4; ++i) {
+            int c = next();
+            int digit = Character.digit(c, 16);
+            if (c < 0 || digit < 0) {
+                throw error("invalid \\u escape", c);
+            }
+            code = code * 16 + digit;
+        }
+        return code;
+    }
+
+    /**
+     * Skips a value of any type, including nested objects and arrays, without decoding it.
+     */
+    private void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            int c = nextNonSpace();
+            switch (c) {
+                case '"':
+                    skipStringBody();
+                    break;
+                case '{':
+                case '[':
+                    ++depth;
+                    break;
+                case '}':
+                case ']':
+                    if (--depth < 0) {
+                        throw error("expected a value", c);
+                    }
+                    break;
+                case ',':
+                case ':':
+                    if (depth == 0) {
+                        throw error("expected a value", c);
+                    }
+                    break;
+                case -1:
+                    throw error("unexpected end of file", c);
+                default:
+                    /* A number, true, false or null: skip to the next delimiter */
+                    while (!isDelimiter(peekRaw())) {
+                        next();
+                    }
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    private void skipStringBody() throws IOException {
+        boolean escaped = false;
+        while (true) {
+            /* Scan the buffer directly; this is where the bulk of the file goes */
+            for (int i = position; i < limit; ++i) {
+                byte b = buffer[i];
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    position = i + 1;
+                    return;
+                }
+            }
+            position = limit;
+            if (!fill()) {
+                throw error("unterminated string", -1);
+            }
+        }
+    }
+
+    private static boolean isDelimiter(int c) {
+        return c < 0 || c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = nextNonSpace();
+        if (c != expected) {
+            throw error("expected '" + expected + "'", c);
+        }
+    }
+
+    private int peek() throws IOException {
+        int c = nextNonSpace();
+        if (c >= 0) {
+            --position;
+        }
+        return c;
+    }
+
+    private int peekRaw() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xff;
+    }
+
+    private int nextNonSpace() throws IOException {
+        int c;
+        do {
+            c = next();
+        } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+        return c;
+    }
+
+    private int next() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        position = 0;
+        limit = Math.max(in.read(buffer, 0, buffer.length), 0);
+        return limit > 0;
+    }
+
+    private TasksRunnerException error(String message, int c) {
+        return new TasksRunnerException("Invalid analytic tasks file at byte " + (offset + position - 1)
+                + ": " + message + (c < 0 ? ", found end of file" : ", found '" + (char) c + "'"));
+    }
+}
@@ -0,0 +1,125 @@
+package edu.umass.ciir;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Evaluates one run against several qrels variants (see QrelVariants): the run file is
+ * read once, against the variants' shared doc ID dictionary, and each request's ranking
+ * is walked once for all of the variants. The scores against each variant are the same
+ * as a separate evaluation against that qrels file would give.
+ */
+public class VariantEvaluator {
+    private static final Logger logger = Logger.getLogger("Evaluator");
+
+    private final Evaluator loaded;
+    private final QrelVariants variants;
+
+    /**
+     * @param loaded an Evaluator loaded with the tasks and the first variant
+     * @param variants the qrels variants
+     */
+    VariantEvaluator(Evaluator loaded, QrelVariants variants) {
+        this.loaded = loaded;
+        this.variants = variants;
+    }
+
+    /**
+     * Reads and scores the run.
+     * @return the request-level scores against each variant, in variant order
+     */
+    List<EvaluationResult> process() {
+        loaded.readRunFile();
+        int variantCount = variants.getVariantCount();
+        List<EvaluationResult> results = new ArrayList<>();
+        MetricSet.Engine[] engines = new MetricSet.Engine[variantCount];
+        for (int v = 0; v < variantCount; ++v) {
+            results.add(new EvaluationResult(variants.getName(v), loaded.metrics.getNames()));
+            engines[v] = loaded.metrics.newEngine();
+        }
+        EvaluationStats.Phase phase = loaded.stats.begin("evaluate", loaded.runFile);
+        long lookups = 0;
+        long scored = 0;
+        for (String requestID : loaded.getRequestIDs()) {
+            RequestRun run = loaded.getRequestRun(requestID);
+            int request = variants.getRequest(requestID);
+            if (run == null || run.size == 0 || request < 0) {
+                continue;
+            }
+            double[][] scores = new double[variantCount][loaded.metrics.size()];
+            lookups += variants.score(engines, request, run.docids, run.size, scores);
+            for (int v = 0; v < variantCount; ++v) {
+                if (variants.judges(v, request)) {
+                    results.get(v).add(requestID, scores[v]);
+                    ++scored;
+                }
+            }
+        }
+        phase.end(scored);
+        logger.info("Scored " + scored + " request/variant pairs against " + variantCount
+                + " qrels variants with " + lookups + " judgment lookups");
+        return results;
+    }
+
+    /**
+     * Writes the scores as a CSV file with a line per variant and request, and a TOTAL
+     * line per variant.
+     */
+    static void writeCSV(List<EvaluationResult> results, String fileName) {
+        try (FileWriter csvWriter = new FileWriter(fileName)) {
+            csvWriter.append("Qrels,Request");
+            for (int m = 0; m < results.get(0).getMetricCount(); ++m) {
+                csvWriter.append(",");
+                csvWriter.append(results.get(0).getMetricName(m));
+            }
+            csvWriter.append("\n");
+            for (EvaluationResult result : results) {
+                for (int i = 0; i < result.size(); ++i) {
+                    csvWriter.append(result.getRunName());
+                    csvWriter.append(",");
+                    csvWriter.append(result.getRequestID(i));
+                    for (int m = 0; m < result.getMetricCount(); ++m) {
+                        csvWriter.append(",");
+                        csvWriter.append(String.format("%.4f", result.getScore(i, m)));
+                    }
+                    csvWriter.append("\n");
+                }
+                csvWriter.append(result.getRunName());
+                csvWriter.append(",TOTAL");
+                for (int m = 0; m < result.getMetricCount(); ++m) {
+                    csvWriter.append(",");
+                    csvWriter.append(String.format("%.4f", result.getTotal(m)));
+                }
+                csvWriter.append("\n");
+            }
+        } catch (IOException e) {
+            throw new TasksRunnerException(e);
+        }
+    }
+
+    /**
+     * Entry point for qrels variants mode.
+     * @param args [-metrics list] analytic-tasks-file run-file output-file qrel-file...
+     */
+    public static void main(String[] args) {
+        CommandLine commandLine = new CommandLine(args);
+        if (commandLine.getPositionalCount() < 4) {
+            System.out.println("evaluator variants: score a run against several qrels files in one pass");
+            System.out.println("Usage: evaluator variants [-metrics list]"
+                    + " analytic-tasks-file run-file output-file qrel-file...");
+            System.exit(-1);
+        }
+        List<String> files = commandLine.getPositional();
+        List<String> qrelFiles = files.subList(3, files.size());
+        Evaluator evaluator = new Evaluator(files.get(0), files.get(1), qrelFiles.get(0), files.get(2));
+        evaluator.metrics = new MetricSet(commandLine.getOption("metrics", MetricSet.DEFAULT_METRICS));
+        evaluator.setupLogging();
+        QrelVariants variants = QrelVariants.read(qrelFiles);
+        /* Any variant will do for reading the run: they all have the shared dictionary */
+        evaluator.load(variants.getVariant(0));
+        writeCSV(new VariantEvaluator(evaluator, variants).process(), files.get(2));
+    }
+}
@@ -0,0 +1,130 @@
+package edu.umass.ciir;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks JudgedSet's two layouts, and that lookupJudgment(), which tests a request's
+ * judged set first, answers like getRelevanceJudgmentValue() for every docid int,
+ * including -1 and ints past the qrels' doc IDs that a run interned itself.
+ */
+public class JudgedSetTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void closeDocidsMakeAnExactSet() {
+        /* Every third docid from 1000: the range is much smaller than a hashed set */
+        int[] docids = new int[70];
+        Set<Integer> members = new HashSet<>();
+        for (int i = 0; i < docids.length; ++i) {
+            docids[i] = 1000 + 3 * i;
+            members.add(docids[i]);
+        }
+        JudgedSet set = new JudgedSet(docids, docids.length);
+        for (int docid = -1; docid < 3000; ++docid) {
+            assertEquals("docid " + docid, members.contains(docid), set.mayContain(docid));
+        }
+        assertFalse(set.mayContain(Integer.MAX_VALUE));
+        assertFalse(set.mayContain(Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void spreadDocidsMakeAHashedSet() {
+        Random random = new Random(17);
+        int[] docids = new int[500];
+        Set<Integer> members = new HashSet<>();
+        for (int i = 0; i < docids.length; ++i) {
+            docids[i] = random.nextInt(10000000);
+            members.add(docids[i]);
+        }
+        JudgedSet set = new JudgedSet(docids, docids.length);
+        for (int docid : docids) {
+            assertTrue(set.mayContain(docid));
+        }
+        /* About one unjudged doc in BITS_PER_JUDGMENT gets through */
+        int tried = 0;
+        int passed = 0;
+        while (tried < 100000) {
+            int docid = random.nextInt(10000000);
+            if (!members.contains(docid)) {
+                ++tried;
+                if (set.mayContain(docid)) {
+                    ++passed;
+                }
+            }
+        }
+        assertTrue(passed + " false positives", passed < tried / 10);
+    }
+
+    @Test
+    public void emptySetContainsNothing() {
+        JudgedSet set = new JudgedSet(new int[0], 0);
+        for (int docid = -1; docid < 1000; ++docid) {
+            assertFalse(set.mayContain(docid));
+        }
+    }
+
+    /**
+     * Checks every docid int of the qrels, and -1 and run-local ints, for every request.
+     */
+    private static void checkLookups(QrelIndex qrels) {
+        DocidDictionary runDocids = new DocidDictionary(qrels.getDocids());
+        int firstRunDocid = runDocids.intern("unjudged-0");
+        for (int i = 1; i < 100; ++i) {
+            runDocids.intern("unjudged-" + i);
+        }
+        assertEquals(qrels.getDocids().size(), firstRunDocid);
+        for (int request = 0; request < qrels.getRequestCount(); ++request) {
+            for (int i = 0; i < qrels.getJudgmentCount(request); ++i) {
+                int docid = qrels.getJudgedDocid(request, i);
+                assertEquals(qrels.getJudgedValue(request, i), qrels.lookupJudgment(request, docid));
+            }
+            for (int docid = 0; docid < qrels.getDocids().size(); ++docid) {
+                assertEquals(qrels.getRelevanceJudgmentValue(request, docid), qrels.lookupJudgment(request, docid));
+            }
+            assertEquals(-1, qrels.lookupJudgment(request, -1));
+            for (int docid = firstRunDocid; docid < runDocids.size(); ++docid) {
+                assertEquals(-1, qrels.lookupJudgment(request, docid));
+            }
+        }
+    }
+
+    @Test
+    public void lookupsMatchTheJudgments() throws IOException {
+        /* Each request judges docs of its own, interned together: exact sets */
+        File ownDocs = folder.newFile("own-docs");
+        Random random = new Random(19);
+        try (Writer w = new BufferedWriter(new FileWriter(ownDocs))) {
+            for (int r = 0; r < 20; ++r) {
+                for (int j = 0; j < 40; ++j) {
+                    w.write(TestData.requestID(r) + " " + r + "-" + TestData.docid(j) + " " + random.nextInt(5) + "\n");
+                }
+            }
+        }
+        checkLookups(HeapQrelIndex.read(ownDocs.getPath()));
+
+        /* Requests judging docs from a shared pool, and the compiled index, which numbers
+           the docs in sorted order: spread out, so mostly hashed sets */
+        File sharedDocs = folder.newFile("shared-docs");
+        TestData.writeQrels(sharedDocs, 20, 40, 3000, random);
+        checkLookups(HeapQrelIndex.read(sharedDocs.getPath()));
+        File compiled = new File(folder.getRoot(), "shared-docs.bin");
+        MappedQrelIndex.compile(HeapQrelIndex.read(sharedDocs.getPath()), compiled.getPath());
+        checkLookups(MappedQrelIndex.open(compiled.getPath()));
+    }
+}
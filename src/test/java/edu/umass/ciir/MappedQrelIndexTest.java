@@ -0,0 +1,96 @@
+package edu.umass.ciir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiles a qrels file and checks that the memory-mapped index reads back the same
+ * judgments, ideal gains and scores as the text file parsed into a HeapQrelIndex.
+ */
+public class MappedQrelIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File qrelFile;
+    private File compiledFile;
+
+    @Before
+    public void compileQrels() throws IOException {
+        qrelFile = folder.newFile("qrels");
+        TestData.writeQrels(qrelFile, 30, 80, 2000, new Random(5));
+        compiledFile = new File(folder.getRoot(), "qrels.bin");
+        MappedQrelIndex.compile(HeapQrelIndex.read(qrelFile.getPath()), compiledFile.getPath());
+    }
+
+    /**
+     * Returns a request's judgments by doc ID.
+     */
+    private static Map<String, Integer> judgments(QrelIndex qrels, int request) {
+        Map<String, Integer> judgments = new HashMap<>();
+        for (int i = 0; i < qrels.getJudgmentCount(request); ++i) {
+            judgments.put(qrels.getDocids().get(qrels.getJudgedDocid(request, i)), qrels.getJudgedValue(request, i));
+        }
+        return judgments;
+    }
+
+    @Test
+    public void compiledQrelsReadBackTheSame() {
+        assertTrue(MappedQrelIndex.isCompiled(compiledFile.getPath()));
+        assertFalse(MappedQrelIndex.isCompiled(qrelFile.getPath()));
+        QrelIndex heap = HeapQrelIndex.read(qrelFile.getPath());
+        QrelIndex mapped = QrelIndex.read(compiledFile.getPath());
+        assertTrue(mapped instanceof MappedQrelIndex);
+
+        DocidLookup docids = mapped.getDocids();
+        assertEquals(heap.getDocids().size(), docids.size());
+        for (int d = 0; d < docids.size(); ++d) {
+            assertEquals(d, docids.lookup(docids.get(d)));
+            assertTrue(heap.getDocids().lookup(docids.get(d)) >= 0);
+        }
+        assertEquals(-1, docids.lookup("no-such-doc"));
+
+        assertEquals(heap.getRequestCount(), mapped.getRequestCount());
+        assertEquals(-1, mapped.getRequest("no-such-request"));
+        for (int hr = 0; hr < heap.getRequestCount(); ++hr) {
+            String requestID = heap.getRequestID(hr);
+            int mr = mapped.getRequest(requestID);
+            assertEquals(requestID, mapped.getRequestID(mr));
+            assertEquals(heap.getJudgmentCount(hr), mapped.getJudgmentCount(mr));
+            assertEquals(heap.getPositiveCount(hr), mapped.getPositiveCount(mr));
+            Map<String, Integer> judgments = judgments(heap, hr);
+            assertEquals(judgments, judgments(mapped, mr));
+            for (Map.Entry<String, Integer> judgment : judgments.entrySet()) {
+                int docid = docids.lookup(judgment.getKey());
+                assertEquals((int) judgment.getValue(), mapped.getRelevanceJudgmentValue(mr, docid));
+                assertEquals((int) judgment.getValue(), mapped.lookupJudgment(mr, docid));
+            }
+            assertArrayEquals(heap.getIdealGains(hr), mapped.getIdealGains(mr));
+            assertEquals(heap.getIdealDCG(hr), mapped.getIdealDCG(mr), 0.0);
+        }
+    }
+
+    @Test
+    public void compiledQrelsScoreTheSame() throws IOException {
+        File tasksFile = folder.newFile("tasks.json");
+        TestData.writeTasks(tasksFile, 35);
+        File runFile = folder.newFile("run");
+        TestData.writeRun(runFile, 35, 300, 2000, new Random(6));
+        EvaluationResult expected = TestData.evaluate(tasksFile, runFile, qrelFile);
+        /* The five requests without judgments are not scored */
+        assertEquals(30, expected.size());
+        TestData.assertSameScores(expected, TestData.evaluate(tasksFile, runFile, compiledFile));
+    }
+}
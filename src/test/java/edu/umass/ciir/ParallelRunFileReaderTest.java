@@ -0,0 +1,137 @@
+package edu.umass.ciir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads a run on several threads and checks it against the sequential reader. The run is
+ * far below ParallelRunFileReader.MIN_PARALLEL_SIZE, which only decides when the
+ * Evaluator uses the parallel reader, so its chunks are small and most of them would
+ * start inside a request's block if findChunkBoundaries did not move them. One request's
+ * block is longer than a chunk, and one request has a second block.
+ */
+public class ParallelRunFileReaderTest {
+    private static final int REQUESTS = 40;
+    private static final int THREADS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File runFile;
+    private long lineCount;
+    private Evaluator loaded;
+
+    @Before
+    public void writeFiles() throws IOException {
+        Random random = new Random(11);
+        File tasksFile = folder.newFile("tasks.json");
+        TestData.writeTasks(tasksFile, REQUESTS);
+        File qrelFile = folder.newFile("qrels");
+        TestData.writeQrels(qrelFile, REQUESTS, 50, 1500, random);
+        int[] requests = new int[REQUESTS + 1];
+        int[] depths = new int[REQUESTS + 1];
+        for (int r = 0; r < REQUESTS; ++r) {
+            requests[r] = r;
+            depths[r] = 1 + random.nextInt(400);
+        }
+        depths[17] = 5000;
+        requests[REQUESTS] = 3;
+        depths[REQUESTS] = 60;
+        for (int depth : depths) {
+            lineCount += depth;
+        }
+        runFile = folder.newFile("run");
+        TestData.writeRun(runFile, requests, depths, 1500, random);
+        loaded = new Evaluator(tasksFile.getPath(), null, qrelFile.getPath(), null);
+        loaded.load();
+    }
+
+    @Test
+    public void chunksStartAtRequestBlocks() throws IOException {
+        byte[] bytes = Files.readAllBytes(runFile.toPath());
+        long[] boundaries;
+        try (RandomAccessFile file = new RandomAccessFile(runFile, "r");
+             FileChannel channel = file.getChannel()) {
+            boundaries = new ParallelRunFileReader(loaded.getQrels().getDocids(),
+                    new DocidDictionary(loaded.getQrels().getDocids()), THREADS).findChunkBoundaries(channel);
+        }
+        assertTrue(boundaries.length > 4);
+        assertEquals(0, boundaries[0]);
+        assertEquals(bytes.length, boundaries[boundaries.length - 1]);
+        for (int c = 1; c + 1 < boundaries.length; ++c) {
+            int b = (int) boundaries[c];
+            assertTrue(b > boundaries[c - 1]);
+            assertEquals('\n', bytes[b - 1]);
+            int previousLine = b - 1;
+            while (previousLine > 0 && bytes[previousLine - 1] != '\n') {
+                --previousLine;
+            }
+            assertNotEquals(requestID(bytes, previousLine), requestID(bytes, b));
+        }
+    }
+
+    private static String requestID(byte[] bytes, int lineStart) {
+        int end = lineStart;
+        while (bytes[end] != ' ') {
+            ++end;
+        }
+        return new String(bytes, lineStart, end - lineStart);
+    }
+
+    @Test
+    public void parallelReadMatchesSequential() {
+        Evaluator sequential = new Evaluator(loaded, runFile.getPath());
+        sequential.parseThreads = 1;
+        sequential.readRunFile();
+
+        DocidDictionary runDocids = new DocidDictionary(loaded.getQrels().getDocids());
+        ParallelRunFileReader reader = new ParallelRunFileReader(loaded.getQrels().getDocids(), runDocids, THREADS);
+        List<RequestRun> requestRuns = reader.read(runFile.getPath());
+        assertEquals(lineCount, reader.getLineCount());
+        /* As the Evaluator keeps them: a request's last block replaces any earlier one */
+        Map<String, RequestRun> parallel = new HashMap<>();
+        for (RequestRun requestRun : requestRuns) {
+            parallel.put(requestRun.requestID, requestRun);
+        }
+        assertEquals(REQUESTS + 1, requestRuns.size());
+        assertEquals(sequential.getRunRequestIDs(), parallel.keySet());
+        for (String requestID : parallel.keySet()) {
+            RequestRun expected = sequential.getRequestRun(requestID);
+            RequestRun actual = parallel.get(requestID);
+            assertNotNull(requestID, actual);
+            assertEquals(requestID, expected.size, actual.size);
+            assertArrayEquals(requestID, Arrays.copyOf(expected.docids, expected.size),
+                    Arrays.copyOf(actual.docids, actual.size));
+            assertArrayEquals(requestID, Arrays.copyOf(expected.scores, expected.size),
+                    Arrays.copyOf(actual.scores, actual.size), 0.0);
+        }
+        assertEquals(MetricSet.MAX_DEPTH, parallel.get(TestData.requestID(17)).size);
+        assertEquals(60, parallel.get(TestData.requestID(3)).size);
+
+        /* The run-local docs get the same ints, in the same order, as sequentially */
+        DocidDictionary expectedDocids = sequential.getRunDocids();
+        assertEquals(expectedDocids.size(), runDocids.size());
+        for (int d = 0; d < runDocids.size(); ++d) {
+            assertEquals(expectedDocids.get(d), runDocids.get(d));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package edu.umass.ciir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Scores a run against several qrels variants in one pass and checks each variant's
+ * scores against a separate evaluation with that qrels file. The variants judge
+ * overlapping docs with different grades, one of them is compiled, and one judges fewer
+ * requests than the others.
+ */
+public class QrelVariantsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void variantsScoreLikeSeparateEvaluations() throws IOException {
+        Random random = new Random(13);
+        File tasksFile = folder.newFile("tasks.json");
+        TestData.writeTasks(tasksFile, 35);
+        File runFile = folder.newFile("run");
+        TestData.writeRun(runFile, 35, 200, 400, random);
+        File first = folder.newFile("qrels1");
+        TestData.writeQrels(first, 30, 60, 400, random);
+        File second = folder.newFile("qrels2");
+        TestData.writeQrels(second, 30, 60, 400, random);
+        File compiled = new File(folder.getRoot(), "qrels2.bin");
+        MappedQrelIndex.compile(HeapQrelIndex.read(second.getPath()), compiled.getPath());
+        File fewer = folder.newFile("qrels3");
+        TestData.writeQrels(fewer, 20, 60, 400, random);
+        List<File> qrelFiles = Arrays.asList(first, compiled, fewer);
+
+        List<String> names = new ArrayList<>();
+        for (File qrelFile : qrelFiles) {
+            names.add(qrelFile.getPath());
+        }
+        QrelVariants variants = QrelVariants.read(names);
+        Evaluator loaded = new Evaluator(tasksFile.getPath(), runFile.getPath(), first.getPath(), null);
+        loaded.metrics = new MetricSet(TestData.METRICS);
+        loaded.load(variants.getVariant(0));
+        List<EvaluationResult> results = new VariantEvaluator(loaded, variants).process();
+
+        assertEquals(qrelFiles.size(), results.size());
+        for (int v = 0; v < qrelFiles.size(); ++v) {
+            assertEquals(qrelFiles.get(v).getName(), results.get(v).getRunName());
+            TestData.assertSameScores(TestData.evaluate(tasksFile, runFile, qrelFiles.get(v)), results.get(v));
+        }
+        assertEquals(30, results.get(0).size());
+        assertEquals(20, results.get(2).size());
+    }
+}
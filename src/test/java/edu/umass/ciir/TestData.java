@@ -0,0 +1,125 @@
+package edu.umass.ciir;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Writes small random tasks, qrels and run files for the tests. Doc IDs come from a pool
+ * shared by all of the requests, so a doc can be judged for several requests. A run
+ * draws its docs from twice the pool, so about half of its hits are docs no request has
+ * judged, and its scores are coarse, so it has ties.
+ */
+class TestData {
+    /** Every kind of metric, so the comparisons cover all of the scoring paths. */
+    static final String METRICS = "nDCG@R,nDCG'@R,nDCG'@10,judged@10,holes@100,AP,bpref,P@10";
+
+    static String requestID(int r) {
+        return "TEST-T" + (r / 10) + "-r" + (r % 10);
+    }
+
+    static String docid(int d) {
+        return "doc-" + d;
+    }
+
+    /**
+     * Writes an analytic tasks file with requests 0..requests-1, ten to a task.
+     */
+    static void writeTasks(File file, int requests) throws IOException {
+        try (Writer w = new BufferedWriter(new FileWriter(file))) {
+            w.write("[");
+            for (int r = 0; r < requests; r += 10) {
+                if (r > 0) {
+                    w.write(",");
+                }
+                w.write("{\"task-num\":\"TEST-T" + (r / 10) + "\",\"requests\":[");
+                for (int k = r; k < Math.min(r + 10, requests); ++k) {
+                    if (k > r) {
+                        w.write(",");
+                    }
+                    w.write("{\"req-num\":\"" + requestID(k) + "\"}");
+                }
+                w.write("]}");
+            }
+            w.write("]");
+        }
+    }
+
+    /**
+     * Writes a qrels file judging docs from the pool 0..docCount-1 for requests
+     * 0..requests-1, mostly non-relevant. A doc may be judged twice for a request; the
+     * later judgment counts.
+     */
+    static void writeQrels(File file, int requests, int judgmentsPerRequest, int docCount, Random random)
+            throws IOException {
+        try (Writer w = new BufferedWriter(new FileWriter(file))) {
+            for (int r = 0; r < requests; ++r) {
+                for (int j = 0; j < judgmentsPerRequest; ++j) {
+                    int grade = (random.nextInt(3) == 0 ? 1 + random.nextInt(4) : 0);
+                    w.write(requestID(r) + " " + docid(random.nextInt(docCount)) + " " + grade + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a run with depth hits for each of requests 0..requests-1.
+     */
+    static void writeRun(File file, int requests, int depth, int docCount, Random random) throws IOException {
+        int[] order = new int[requests];
+        int[] depths = new int[requests];
+        for (int r = 0; r < requests; ++r) {
+            order[r] = r;
+            depths[r] = depth;
+        }
+        writeRun(file, order, depths, docCount, random);
+    }
+
+    /**
+     * Writes a run with a block of lines for each entry of requests, in that order, so a
+     * request can have several blocks.
+     * @param requests the request of each block
+     * @param depths the number of lines in each block
+     */
+    static void writeRun(File file, int[] requests, int[] depths, int docCount, Random random) throws IOException {
+        try (Writer w = new BufferedWriter(new FileWriter(file))) {
+            for (int b = 0; b < requests.length; ++b) {
+                for (int i = 0; i < depths[b]; ++i) {
+                    w.write(requestID(requests[b]) + " Q0 " + docid(random.nextInt(2 * docCount)) + " " + (i + 1)
+                            + " " + (depths[b] - i) / 4 + ".0 test\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates a run the way the single-run mode does.
+     */
+    static EvaluationResult evaluate(File tasksFile, File runFile, File qrelFile) {
+        Evaluator evaluator = new Evaluator(tasksFile.getPath(), runFile.getPath(), qrelFile.getPath(), null);
+        evaluator.metrics = new MetricSet(METRICS);
+        evaluator.load();
+        return evaluator.evaluateRun();
+    }
+
+    /**
+     * Checks that two results have the same requests, in the same order, with the same
+     * scores.
+     */
+    static void assertSameScores(EvaluationResult expected, EvaluationResult actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getMetricCount(), actual.getMetricCount());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.getRequestID(i), actual.getRequestID(i));
+            for (int m = 0; m < expected.getMetricCount(); ++m) {
+                assertEquals(expected.getRequestID(i) + " " + expected.getMetricName(m),
+                        expected.getScore(i, m), actual.getScore(i, m), 0.0);
+            }
+        }
+    }
+}